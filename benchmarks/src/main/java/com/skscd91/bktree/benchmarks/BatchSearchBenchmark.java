@@ -0,0 +1,56 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to search for a batch of 1024 misspelled words, with searchAll against calling search in a loop.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchSearchBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "2"})
+    public int radius;
+
+    private BKTree<CharSequence> tree;
+    private List<String> queries;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName("myers"));
+        tree.addAll(words);
+        queries = WordLists.misspellings(words, 1024, 2, 7);
+    }
+
+    @Benchmark
+    public List<List<BKTree.SearchResult<CharSequence>>> searchLoop() {
+        List<List<BKTree.SearchResult<CharSequence>>> results = new ArrayList<>(queries.size());
+        for (String query : queries)
+            results.add(tree.search(query, radius));
+        return results;
+    }
+
+    @Benchmark
+    public List<List<BKTree.SearchResult<CharSequence>>> searchAll() {
+        return tree.searchAll(queries, radius);
+    }
+
+    @Benchmark
+    public List<List<BKTree.SearchResult<CharSequence>>> searchAllParallel() {
+        return tree.searchAll(queries, radius, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,53 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build a tree from a whole dictionary, by repeated add or by bulkLoad.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"shuffled", "sorted"})
+    public String order;
+
+    // Adding compares each word to the nodes on its path without preparing it, so this also measures plain calls.
+    @Param({"levenshtein", "myers"})
+    public String distance;
+
+    private List<String> words;
+
+    @Setup
+    public void setUp() {
+        words = new ArrayList<>(WordLists.words(size, 42));
+        if (order.equals("sorted")) // Like a dictionary file.
+            Collections.sort(words);
+    }
+
+    @Benchmark
+    public BKTree<CharSequence> add() {
+        BKTree<CharSequence> tree = new BKTree<>(Distances.byName(distance));
+        for (String word : words)
+            tree.add(word);
+        return tree;
+    }
+
+    @Benchmark
+    public BKTree<CharSequence> bulkLoad() {
+        return BKTree.bulkLoad(words, Distances.byName(distance));
+    }
+}
@@ -0,0 +1,61 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.ConcurrentBKTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read throughput of ConcurrentBKTree. Run with -t 1, -t 2, -t 4 and so on to see how searches scale
+ * with threads, and the readWrite group to see searches running alongside a writer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1"})
+    public int radius;
+
+    private ConcurrentBKTree<CharSequence> tree;
+    private String[] queries, churn;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size + 1024, 42);
+        tree = new ConcurrentBKTree<>(Distances.byName("myers"));
+        tree.addAll(words.subList(0, size));
+        queries = WordLists.misspellings(words.subList(0, size), 1024, 2, 7).toArray(new String[0]);
+        churn = words.subList(size, size + 1024).toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        String query = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+        tree.search(query, radius, (item, distance) -> blackhole.consume(item));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public void readWriteSearch(Blackhole blackhole) {
+        search(blackhole);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean readWriteAddRemove() {
+        String word = churn[ThreadLocalRandom.current().nextInt(churn.length)];
+        return tree.add(word) || tree.remove(word);
+    }
+}
@@ -0,0 +1,98 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.DistanceFunction;
+import com.skscd91.bktree.DistanceFunctions;
+import com.skscd91.bktree.PreparedQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw throughput of the distance functions on dictionary words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceFunctionBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"true", "false"})
+    public boolean isCaseSensitive;
+
+    private DistanceFunction<CharSequence> levenshtein, myers, hamming, damerau, weighted;
+    private String[] pairs, equalLengthPairs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(PAIRS * 4, 42);
+        pairs = new String[PAIRS * 2];
+        for (int i = 0; i < pairs.length; i++)
+            pairs[i] = words.get(i);
+        equalLengthPairs = WordLists.equalLengthPairs(words, PAIRS, 17).toArray(new String[0]);
+        levenshtein = DistanceFunctions.levenshteinDistance(isCaseSensitive);
+        myers = DistanceFunctions.myersLevenshteinDistance(isCaseSensitive);
+        hamming = DistanceFunctions.hammingDistance(isCaseSensitive);
+        damerau = DistanceFunctions.damerauLevenshteinDistance(isCaseSensitive);
+        weighted = DistanceFunctions.weightedLevenshteinDistance(2, (a, b) -> Character.toLowerCase(a) == Character.toLowerCase(b) ? 1 : 2);
+    }
+
+    private int nextPair() {
+        next = (next + 2) & (PAIRS * 2 - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int levenshteinDistance() {
+        int i = nextPair();
+        return levenshtein.distance(pairs[i], pairs[i + 1]);
+    }
+
+    @Benchmark
+    public int levenshteinDistanceBounded() {
+        int i = nextPair();
+        return levenshtein.distance(pairs[i], pairs[i + 1], 2);
+    }
+
+    @Benchmark
+    public int myersLevenshteinDistance() {
+        int i = nextPair();
+        return myers.distance(pairs[i], pairs[i + 1]);
+    }
+
+    /**
+     * Compare one prepared query to 16 words, as search does for each visited node.
+     */
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public int myersLevenshteinDistancePrepared() {
+        int i = nextPair(), sum = 0;
+        PreparedQuery<CharSequence> query = myers.prepare(pairs[i]);
+        for (int j = 0; j < 16; j++)
+            sum += query.distanceTo(pairs[(i + 1 + 2 * j) & (PAIRS * 2 - 1)], Integer.MAX_VALUE);
+        return sum;
+    }
+
+    @Benchmark
+    public int hammingDistance() {
+        int i = nextPair();
+        return hamming.distance(equalLengthPairs[i], equalLengthPairs[i + 1]);
+    }
+
+    @Benchmark
+    public int damerauLevenshteinDistance() {
+        int i = nextPair();
+        return damerau.distance(pairs[i], pairs[i + 1]);
+    }
+
+    @Benchmark
+    public int weightedLevenshteinDistance() {
+        int i = nextPair();
+        return weighted.distance(pairs[i], pairs[i + 1]);
+    }
+}
@@ -0,0 +1,31 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.DistanceFunction;
+import com.skscd91.bktree.DistanceFunctions;
+
+/**
+ * Distance functions selectable by name from benchmark parameters.
+ */
+public final class Distances {
+
+    private Distances() {}
+
+    public static DistanceFunction<CharSequence> byName(String name) {
+        switch (name) {
+            case "levenshtein":
+                return DistanceFunctions.levenshteinDistance();
+            case "levenshteinIgnoreCase":
+                return DistanceFunctions.levenshteinDistance(false);
+            case "myers":
+                return DistanceFunctions.myersLevenshteinDistance();
+            case "myersIgnoreCase":
+                return DistanceFunctions.myersLevenshteinDistance(false);
+            case "damerau":
+                return DistanceFunctions.damerauLevenshteinDistance();
+            case "hamming":
+                return DistanceFunctions.hammingDistance();
+            default:
+                throw new IllegalArgumentException("Unknown distance function " + name);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.FrozenBKTree;
+import com.skscd91.bktree.ResultConsumer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency of a frozen snapshot, with its nodes flattened into arrays, against the BKTree it was taken from.
+ * The snapshot is shared by every benchmark thread, so run with -t to search it concurrently.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrozenBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "2"})
+    public int radius;
+
+    @Param({"myers"})
+    public String distance;
+
+    private BKTree<CharSequence> tree;
+    private FrozenBKTree<CharSequence> frozen;
+    private String[] queries;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName(distance));
+        tree.addAll(words);
+        frozen = tree.freeze();
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (queries.length - 1);
+        return queries[cursor.next];
+    }
+
+    @Benchmark
+    public void searchBKTree(Cursor cursor, Blackhole blackhole) {
+        ResultConsumer<CharSequence> consumer = (item, distance) -> blackhole.consume(item);
+        tree.search(nextQuery(cursor), radius, consumer);
+    }
+
+    @Benchmark
+    public void searchFrozen(Cursor cursor, Blackhole blackhole) {
+        ResultConsumer<CharSequence> consumer = (item, distance) -> blackhole.consume(item);
+        frozen.search(nextQuery(cursor), radius, consumer);
+    }
+
+    @Benchmark
+    public FrozenBKTree<CharSequence> freeze() {
+        return tree.freeze();
+    }
+}
@@ -0,0 +1,73 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.DistanceFunctions;
+import com.skscd91.bktree.LongBKTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near duplicate search of 64-bit fingerprints in a primitive LongBKTree against a BKTree of boxed Longs.
+ * Fingerprints are clustered around a few bases, like perceptual hashes of similar images.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LongBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"4", "8"})
+    public int radius;
+
+    private BKTree<Long> tree;
+    private LongBKTree longTree;
+    private long[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long[] bases = new long[64];
+        for (int i = 0; i < bases.length; i++)
+            bases[i] = random.nextLong();
+
+        tree = new BKTree<>(DistanceFunctions.bitHammingDistance());
+        longTree = new LongBKTree();
+        for (int i = 0; i < size; i++) {
+            long item = nearby(bases[random.nextInt(bases.length)], random);
+            tree.add(item);
+            longTree.add(item);
+        }
+        queries = new long[1024];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = nearby(bases[random.nextInt(bases.length)], random);
+    }
+
+    // Flip about 8 random bits of base.
+    private static long nearby(long base, Random random) {
+        return base ^ (random.nextLong() & random.nextLong() & random.nextLong());
+    }
+
+    private long nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public void searchBKTree(Blackhole blackhole) {
+        tree.search(nextQuery(), radius, (item, distance) -> blackhole.consume(item));
+    }
+
+    @Benchmark
+    public void searchLongBKTree(Blackhole blackhole) {
+        longTree.search(nextQuery(), radius, (item, distance) -> blackhole.consume(item));
+    }
+}
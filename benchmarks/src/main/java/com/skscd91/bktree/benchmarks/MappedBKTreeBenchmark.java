@@ -0,0 +1,72 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.ItemCodecs;
+import com.skscd91.bktree.MappedBKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup and search latency of a memory-mapped tree file, against the heap tree it was written from.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappedBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1"})
+    public int radius;
+
+    private BKTree<CharSequence> tree;
+    private MappedBKTree<CharSequence> mapped;
+    private Path path;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName("myers"));
+        tree.addAll(words);
+        path = Files.createTempFile("bktree", ".bkt");
+        MappedBKTree.write(tree, ItemCodecs.utf8(), path);
+        mapped = MappedBKTree.open(path, ItemCodecs.utf8(), Distances.byName("myers"));
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public MappedBKTree<CharSequence> open() throws IOException {
+        return MappedBKTree.open(path, ItemCodecs.utf8(), Distances.byName("myers"));
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchMapped() {
+        return mapped.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchHeap() {
+        return tree.search(nextQuery(), radius);
+    }
+}
@@ -0,0 +1,74 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Latency of finding the k closest words with nearest, against growing the radius of search until k are found,
+ * and of reading the first k results of a search at a fixed radius from a stream, against sorting them all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearestBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "5", "20"})
+    public int k;
+
+    @Param({"3"})
+    public int radius;
+
+    private BKTree<CharSequence> tree;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName("myers"));
+        tree.addAll(words);
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> nearest() {
+        return tree.nearest(nextQuery(), k);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> growingRadius() {
+        String query = nextQuery();
+        for (int radius = 0; ; radius++) {
+            List<BKTree.SearchResult<CharSequence>> results = tree.search(query, radius);
+            if (results.size() >= k || results.size() == tree.size())
+                return new ArrayList<>(results.subList(0, Math.min(k, results.size())));
+        }
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> streamLimit() {
+        return tree.searchStream(nextQuery(), radius).limit(k).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchThenLimit() {
+        List<BKTree.SearchResult<CharSequence>> results = tree.search(nextQuery(), radius);
+        return new ArrayList<>(results.subList(0, Math.min(k, results.size())));
+    }
+}
@@ -0,0 +1,56 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of parallelSearch at large radii for several split thresholds, against the sequential search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelSearchBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"2", "3", "4"})
+    public int radius;
+
+    @Param({"8", "32", "128"})
+    public int splitThreshold;
+
+    private BKTree<CharSequence> tree;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName("myers"));
+        tree.addAll(words);
+        queries = WordLists.misspellings(words, 256, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> parallelSearch() {
+        return tree.parallelSearch(nextQuery(), radius, ForkJoinPool.commonPool(), splitThreshold);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> sequentialSearch() {
+        return tree.search(nextQuery(), radius);
+    }
+}
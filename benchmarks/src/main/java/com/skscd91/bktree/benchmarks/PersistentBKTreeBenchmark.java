@@ -0,0 +1,142 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.DistanceFunction;
+import com.skscd91.bktree.ItemCodecs;
+import com.skscd91.bktree.PersistentBKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Write throughput of a tree that logs every change, by how many records are batched into each fsync,
+ * and the time to reopen a tree from its log alone, or from a compacted snapshot.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistentBKTreeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+
+        @Param({"100000"})
+        public int size;
+
+        @Param({"1", "64", "0"})
+        public int syncEvery;
+
+        private Path directory;
+        private PersistentBKTree<CharSequence> tree;
+        private BKTree<CharSequence> heapTree;
+        private String[] words;
+        private int next;
+
+        @Setup
+        public void setUp() throws IOException {
+            List<String> wordList = WordLists.words(size, 42);
+            directory = Files.createTempDirectory("bktree");
+            tree = PersistentBKTree.open(directory, ItemCodecs.utf8(), Distances.byName("myers"), syncEvery);
+            tree.addAll(wordList.subList(0, size / 2));
+            tree.compact();
+            heapTree = new BKTree<>(Distances.byName("myers"));
+            heapTree.addAll(wordList.subList(0, size / 2));
+            words = wordList.toArray(new String[0]);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            tree.close();
+            deleteDirectory(directory);
+        }
+
+        private String nextWord() {
+            next = next + 1 == words.length ? 0 : next + 1;
+            return words[next];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+
+        @Param({"100000"})
+        public int size;
+
+        private Path logDirectory;
+        private Path snapshotDirectory;
+        private List<String> words;
+        private final DistanceFunction<CharSequence> distanceFunction = Distances.byName("myers");
+
+        @Setup
+        public void setUp() throws IOException {
+            words = WordLists.words(size, 42);
+            logDirectory = Files.createTempDirectory("bktree");
+            try (PersistentBKTree<CharSequence> tree = PersistentBKTree.open(logDirectory, ItemCodecs.utf8(),
+                    distanceFunction, 0)) {
+                tree.addAll(words);
+            }
+            snapshotDirectory = Files.createTempDirectory("bktree");
+            try (PersistentBKTree<CharSequence> tree = PersistentBKTree.open(snapshotDirectory, ItemCodecs.utf8(),
+                    distanceFunction, 0)) {
+                tree.addAll(words);
+                tree.compact();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            deleteDirectory(logDirectory);
+            deleteDirectory(snapshotDirectory);
+        }
+    }
+
+    // Each call adds a word, or removes it if it is already in the tree, so every call logs one record.
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean addOrRemove(Writes state) {
+        String word = state.nextWord();
+        return state.tree.add(word) || state.tree.remove(word);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean addOrRemoveHeap(Writes state) {
+        String word = state.nextWord();
+        return state.heapTree.add(word) || state.heapTree.remove(word);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int openFromLog(Recovery state) throws IOException {
+        try (PersistentBKTree<CharSequence> tree = PersistentBKTree.open(state.logDirectory, ItemCodecs.utf8(),
+                state.distanceFunction, 0)) {
+            return tree.size();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int openFromSnapshot(Recovery state) throws IOException {
+        try (PersistentBKTree<CharSequence> tree = PersistentBKTree.open(state.snapshotDirectory, ItemCodecs.utf8(),
+                state.distanceFunction, 0)) {
+            return tree.size();
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+}
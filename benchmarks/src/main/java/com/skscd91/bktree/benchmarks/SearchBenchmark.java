@@ -0,0 +1,69 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single search for a misspelled word.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"0", "1", "2", "3"})
+    public int radius;
+
+    @Param({"levenshtein", "myers"})
+    public String distance;
+
+    @Param({"add"})
+    public String build; // "add" for repeated add, or "bulkLoad".
+
+    @Param({"0"})
+    public int pivots; // The number of pivots to index the tree with.
+
+    private BKTree<CharSequence> tree;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        if (build.equals("bulkLoad")) {
+            tree = BKTree.bulkLoad(words, Distances.byName(distance));
+        } else {
+            tree = new BKTree<>(Distances.byName(distance));
+            tree.addAll(words);
+        }
+        if (pivots > 0)
+            tree.setPivots(BKTree.selectPivots(words.subList(0, Math.min(words.size(), 2000)), pivots,
+                    Distances.byName(distance)));
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> search() {
+        return tree.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public void searchWithConsumer(Blackhole blackhole) {
+        tree.search(nextQuery(), radius, (item, distance) -> blackhole.consume(item));
+    }
+}
@@ -0,0 +1,101 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.SearchService;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A load generator for SearchService, which is not a JMH benchmark since it measures the latency each
+ * client sees under contention rather than the time of one operation. Client threads send searches in a
+ * closed loop, each waiting for its result before sending the next, for a fixed time. Queries are drawn with
+ * a heavy skew towards a few popular misspellings, so identical searches overlap as they do on a spell-check
+ * endpoint. The same load runs once with each search submitted straight to the pool, and once through a
+ * SearchService on the same pool, and the throughput and latency percentiles of each are printed.
+ *
+ * Run with: java -cp benchmarks/target/benchmarks.jar com.skscd91.bktree.benchmarks.SearchServiceLoad
+ * [clients] [seconds] [radius] [size]
+ */
+public final class SearchServiceLoad {
+
+    private SearchServiceLoad() {}
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int radius = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+        List<String> words = WordLists.words(size, 42);
+        BKTree<CharSequence> tree = new BKTree<>(Distances.byName("myers"));
+        tree.addAll(words);
+        String[] queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d words, %d clients, radius %d, %d pool threads%n",
+                tree.size(), clients, radius, Runtime.getRuntime().availableProcessors());
+
+        try {
+            run("warm up", clients, Math.max(1, seconds / 2), queries,
+                    query -> CompletableFuture.supplyAsync(() -> tree.search(query, radius), pool));
+            run("direct", clients, seconds, queries,
+                    query -> CompletableFuture.supplyAsync(() -> tree.search(query, radius), pool));
+            SearchService<CharSequence> service = new SearchService<>(tree::search, pool);
+            run("coalesced", clients, seconds, queries, query -> service.search(query, radius));
+            System.out.printf("coalesced: %d traversals, %d searches joined one in flight%n",
+                    service.getSearchCount(), service.getCoalescedCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface Client {
+        CompletableFuture<?> search(String query);
+    }
+
+    private static void run(String name, int clients, int seconds, String[] queries, Client client)
+            throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            threads[c] = new Thread(() -> {
+                Random random = new Random(id);
+                long[] own = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < end) {
+                    double skewed = Math.pow(random.nextDouble(), 4); // Most searches are for a few queries.
+                    String query = queries[(int) (skewed * queries.length)];
+                    long start = System.nanoTime();
+                    client.search(query).join();
+                    if (count == own.length)
+                        own = Arrays.copyOf(own, count << 1);
+                    own[count++] = System.nanoTime() - start;
+                }
+                latencies[id] = own;
+                counts[id] = count;
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        int total = 0;
+        for (int count : counts)
+            total += count;
+        long[] all = new long[total];
+        for (int c = 0, offset = 0; c < clients; offset += counts[c], c++)
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+        Arrays.sort(all);
+        System.out.printf("%-10s %8.0f searches/s  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us%n", name,
+                total / (double) seconds, percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1000.0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.ShardedBKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency of a tree sharded by word length against a single BKTree holding every length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "2"})
+    public int radius;
+
+    @Param({"myers"})
+    public String distance;
+
+    private BKTree<CharSequence> tree;
+    private ShardedBKTree<CharSequence> sharded;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName(distance));
+        tree.addAll(words);
+        sharded = ShardedBKTree.byLength(Distances.byName(distance));
+        sharded.addAll(words);
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchBKTree() {
+        return tree.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchSharded() {
+        return sharded.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> parallelSearchSharded() {
+        return sharded.parallelSearch(nextQuery(), radius);
+    }
+}
@@ -0,0 +1,69 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.StringBKTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency of a string tree stored in one char arena, on and off the heap, against a BKTree of Strings.
+ * Myers reads each term through its view one character at a time, while Levenshtein copies it into
+ * the thread's scratch buffer first; run with -prof gc to check that neither allocates per visited term.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringBKTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "2"})
+    public int radius;
+
+    @Param({"myers", "levenshtein"})
+    public String distance;
+
+    private BKTree<CharSequence> tree;
+    private StringBKTree heapArena;
+    private StringBKTree offHeapArena;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName(distance));
+        tree.addAll(words);
+        heapArena = new StringBKTree(Distances.byName(distance));
+        heapArena.addAll(words);
+        offHeapArena = new StringBKTree(Distances.byName(distance), true);
+        offHeapArena.addAll(words);
+        queries = WordLists.misspellings(words, 1024, 2, 7).toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (queries.length - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchBKTree() {
+        return tree.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchHeapArena() {
+        return heapArena.search(nextQuery(), radius);
+    }
+
+    @Benchmark
+    public List<BKTree.SearchResult<CharSequence>> searchOffHeapArena() {
+        return offHeapArena.search(nextQuery(), radius);
+    }
+}
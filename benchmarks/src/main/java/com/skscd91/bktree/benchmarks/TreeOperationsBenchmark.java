@@ -0,0 +1,98 @@
+package com.skscd91.bktree.benchmarks;
+
+import com.skscd91.bktree.BKTree;
+import com.skscd91.bktree.DistanceFunction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * contains, churn through remove and add, and iteration over a dictionary sized tree.
+ * The rescore benchmarks scan every item with a distance call each, sequentially and as a parallel stream
+ * split by subtrees, so run them on a machine with several cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeOperationsBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"levenshtein"})
+    public String distance;
+
+    private BKTree<CharSequence> tree;
+    private String[] present, absent;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> words = WordLists.words(size, 42);
+        tree = new BKTree<>(Distances.byName(distance));
+        tree.addAll(words);
+        present = WordLists.misspellings(words, 1024, 0, 11).toArray(new String[0]);
+        absent = WordLists.syntheticWords(size + 1024, 42).subList(size, size + 1024).toArray(new String[0]);
+        if (System.getProperty(WordLists.WORDS_PROPERTY) != null) // File words may overlap the synthetic ones.
+            absent = WordLists.misspellings(words, 1024, 3, 13).stream()
+                    .filter(w -> !tree.contains(w)).toArray(String[]::new);
+    }
+
+    private int nextIndex(int length) {
+        next = (next + 1) % length;
+        return next;
+    }
+
+    @Benchmark
+    public boolean containsPresent() {
+        return tree.contains(present[nextIndex(present.length)]);
+    }
+
+    @Benchmark
+    public boolean containsAbsent() {
+        return tree.contains(absent[nextIndex(absent.length)]);
+    }
+
+    /**
+     * Remove a word, which replaces its node, then add it back so the tree keeps its size.
+     */
+    @Benchmark
+    public boolean removeAndAdd() {
+        String word = present[nextIndex(present.length)];
+        return tree.remove(word) & tree.add(word);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void iterate(Blackhole blackhole) {
+        for (CharSequence item : tree)
+            blackhole.consume(item);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void iterateDepthFirst(Blackhole blackhole) {
+        for (Iterator<CharSequence> iterator = tree.depthFirstIterator(); iterator.hasNext(); )
+            blackhole.consume(iterator.next());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long rescoreStream() {
+        DistanceFunction<CharSequence> distanceFunction = Distances.byName(distance);
+        return tree.stream().filter(item -> distanceFunction.distance(item, present[0]) <= 3).count();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long rescoreParallelStream() {
+        DistanceFunction<CharSequence> distanceFunction = Distances.byName(distance);
+        return tree.parallelStream().filter(item -> distanceFunction.distance(item, present[0]) <= 3).count();
+    }
+}
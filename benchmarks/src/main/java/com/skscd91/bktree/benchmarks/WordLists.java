@@ -0,0 +1,134 @@
+package com.skscd91.bktree.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Reproducible word lists and queries for the benchmarks.
+ * Words are generated from English letter and length frequencies, unless the system property
+ * bktree.words names a word list file (one word per line), in which case words are sampled from that file.
+ */
+public final class WordLists {
+
+    public static final String WORDS_PROPERTY = "bktree.words";
+
+    private static final String LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+    // Approximate English letter frequencies, per thousand, in the same order as LETTERS.
+    private static final int[] LETTER_WEIGHTS =
+            {127, 91, 82, 75, 70, 67, 63, 61, 60, 43, 40, 28, 28, 24, 24, 22, 20, 20, 19, 15, 10, 8, 2, 2, 1, 1};
+    // Approximate dictionary word length frequencies, per thousand, for lengths 2 to 16.
+    private static final int[] LENGTH_WEIGHTS =
+            {5, 25, 55, 95, 125, 140, 140, 125, 100, 75, 50, 30, 18, 10, 7};
+
+    private WordLists() {}
+
+    /**
+     * @param count The number of distinct words to return.
+     * @param seed The seed for the random generator, so the same arguments always give the same words.
+     * @return Distinct words in random order.
+     */
+    public static List<String> words(int count, long seed) {
+        String path = System.getProperty(WORDS_PROPERTY);
+        return path == null ? syntheticWords(count, seed) : sampleFile(path, count, seed);
+    }
+
+    /**
+     * @return count distinct words generated from English letter and length frequencies, in random order.
+     */
+    public static List<String> syntheticWords(int count, long seed) {
+        Random random = new Random(seed);
+        Set<String> words = new LinkedHashSet<>(count * 2);
+        while (words.size() < count) {
+            char[] chars = new char[2 + pick(random, LENGTH_WEIGHTS)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = LETTERS.charAt(pick(random, LETTER_WEIGHTS));
+            words.add(new String(chars));
+        }
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * @return Up to count distinct words from a file, one per line, shuffled.
+     */
+    public static List<String> sampleFile(String path, int count, long seed) {
+        try {
+            List<String> words = new ArrayList<>(new LinkedHashSet<>(Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)));
+            words.removeIf(String::isEmpty);
+            Collections.shuffle(words, new Random(seed));
+            return words.size() > count ? new ArrayList<>(words.subList(0, count)) : words;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Make queries by applying random substitutions, insertions and deletions to random words.
+     * @param words The words to misspell.
+     * @param count The number of queries to make.
+     * @param maxEdits The maximum number of edits to apply to each query.
+     * @return Misspelled words.
+     */
+    public static List<String> misspellings(List<String> words, int count, int maxEdits, long seed) {
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            StringBuilder query = new StringBuilder(words.get(random.nextInt(words.size())));
+            for (int edits = random.nextInt(maxEdits + 1); edits > 0; edits--) {
+                int i = random.nextInt(query.length() + 1);
+                char c = LETTERS.charAt(pick(random, LETTER_WEIGHTS));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        query.insert(i, c);
+                        break;
+                    case 1:
+                        if (i < query.length() && query.length() > 1)
+                            query.deleteCharAt(i);
+                        break;
+                    default:
+                        if (i < query.length())
+                            query.setCharAt(i, c);
+                }
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * @return Pairs of equal length words, flattened so that items 2i and 2i + 1 form a pair.
+     */
+    public static List<String> equalLengthPairs(List<String> words, int count, long seed) {
+        Random random = new Random(seed);
+        List<String> pairs = new ArrayList<>(count * 2);
+        for (String query : misspellings(words, count * 4, 0, seed)) {
+            if (pairs.size() == count * 2)
+                break;
+            StringBuilder other = new StringBuilder(query);
+            for (int i = 0; i < other.length(); i++) {
+                if (random.nextInt(3) == 0)
+                    other.setCharAt(i, LETTERS.charAt(pick(random, LETTER_WEIGHTS)));
+            }
+            pairs.add(query);
+            pairs.add(other.toString());
+        }
+        return pairs;
+    }
+
+    // Pick an index with probability proportional to its weight.
+    private static int pick(Random random, int[] weights) {
+        int total = 0;
+        for (int weight : weights)
+            total += weight;
+        int r = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0)
+                return i;
+        }
+        return weights.length - 1;
+    }
+}
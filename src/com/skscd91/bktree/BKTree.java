@@ -1,6 +1,14 @@
 package com.skscd91.bktree;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A tree used to find objects of type T within a certain distance.
@@ -17,9 +25,20 @@ import java.util.*;
  */
 public class BKTree<T> extends AbstractSet<T> {
 
+    /**
+     * The default number of nodes left to visit at which parallelSearch splits the search.
+     */
+    public static final int DEFAULT_SPLIT_THRESHOLD = 32;
+
+    private static final int BULK_LOAD_PARALLEL_SIZE = 2048; // Subtrees with this many items are built in parallel.
+    private static final int BULK_LOAD_MAX_SAMPLE = 16; // The most items compared to find a subtree's medoid.
+    private static final int SEARCH_ALL_GROUP_SIZE = 256; // The most queries walked through the tree together.
+
     private final DistanceFunction<T> distanceFunction;
     private Node<T> rootNode;
     private int length;
+    private int deletedCount; // Nodes marked as deleted, which are not counted in length.
+    private List<T> pivots = Collections.emptyList(); // Items every node stores its distance to.
     private int modCount; // Modification count for fail-fast iterator.
 
     /**
@@ -34,6 +53,46 @@ public class BKTree<T> extends AbstractSet<T> {
         modCount = 0;
     }
 
+    /**
+     * Build a tree from a collection in one pass, using the common ForkJoinPool.
+     * @see #bulkLoad(Collection, DistanceFunction, ForkJoinPool)
+     */
+    public static <T> BKTree<T> bulkLoad(Collection<? extends T> items, DistanceFunction<T> distanceFunction) {
+        return bulkLoad(items, distanceFunction, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Build a tree from a collection in one pass. Each subtree is rooted at an approximate medoid of its items,
+     * the one closest to the others in a sample, and its remaining items are split by distance from that root.
+     * This makes the shape of the tree independent of the order of the items, so a sorted word list
+     * gives as good a tree as a shuffled one. Large subtrees are built in parallel,
+     * so the distance function must be safe to call from multiple threads.
+     * @param items The non-null items to add to the tree. Duplicates are only added once.
+     * @param distanceFunction A function that computes the distance between two objects of type T.
+     * @param pool The pool to build large subtrees in.
+     * @return A new tree containing the items.
+     */
+    public static <T> BKTree<T> bulkLoad(Collection<? extends T> items, DistanceFunction<T> distanceFunction,
+                                         ForkJoinPool pool) {
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null.");
+        BKTree<T> tree = new BKTree<>(distanceFunction);
+        List<T> itemList = new ArrayList<>(items);
+        for (T item : itemList) {
+            if (item == null)
+                throw new NullPointerException();
+        }
+        if (itemList.isEmpty())
+            return tree;
+
+        AtomicInteger nodeCount = new AtomicInteger();
+        tree.rootNode = pool.invoke(tree.new BuildTask(itemList, nodeCount));
+        tree.length = nodeCount.get();
+        countSubtrees(tree.rootNode);
+        tree.modCount++;
+        return tree;
+    }
+
     /**
      * Search for items in the tree that are within a maximum distance from t.
      * @param t The item to find approximate matches of from the tree.
@@ -44,27 +103,470 @@ public class BKTree<T> extends AbstractSet<T> {
         if (t == null)
             return Collections.emptyList();
         ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
-        ArrayDeque<Node<T>> nextNodes = new ArrayDeque<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found. Nothing is allocated per visited node, so this is the cheapest way to scan for matches.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (t == null || rootNode == null)
+            return;
+
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        int[] queryPivots = pivotDistances(t);
+        NodeStack<T> nextNodes = new NodeStack<>(); // Depth first, to keep the frontier small.
+        nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty())
+            visit(nextNodes.pop(), query, queryPivots, radius, nextNodes, consumer);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found, and add the work it took to stats. The time spent in the consumer is included.
+     * The counting is kept out of the other search methods, so they do not pay for it.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     * @param stats Counters to add this search to.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer, SearchStats stats) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (stats == null)
+            throw new NullPointerException("stats cannot be null.");
+        if (t == null)
+            return;
+
+        long start = System.nanoTime();
+        long[] counts = new long[2]; // Distance calls and results.
+        PreparedQuery<T> prepared = distanceFunction.prepare(t);
+        PreparedQuery<T> query = (item, maxDistance) -> {
+            counts[0]++;
+            return prepared.distanceTo(item, maxDistance);
+        };
+        ResultConsumer<T> countingConsumer = (item, distance) -> {
+            counts[1]++;
+            consumer.accept(item, distance);
+        };
+
+        int[] queryPivots = pivotDistances(t);
+        if (queryPivots != null)
+            counts[0] += queryPivots.length;
+
+        long nodesVisited = 0, childrenPruned = 0;
+        NodeStack<T> nextNodes = new NodeStack<>();
         if (rootNode != null)
-            nextNodes.add(rootNode);
-
-        while(!nextNodes.isEmpty()) {
-            Node<T> nextNode = nextNodes.poll();
-            int distance = distanceFunction.distance(nextNode.item, t);
-            if (distance <= radius)
-                searchResults.add(new SearchResult<>(distance, nextNode.item));
-            int lowBound = Math.max(0, distance - radius), highBound = distance + radius;
-            for (Integer i = lowBound; i <= highBound; i++) {
-                if (nextNode.children.containsKey(i))
-                    nextNodes.add(nextNode.children.get(i));
-            }
+            nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty()) {
+            Node<T> node = nextNodes.pop();
+            int frontier = nextNodes.size;
+            visit(node, query, queryPivots, radius, nextNodes, countingConsumer);
+            nodesVisited++;
+            childrenPruned += node.childCount - (nextNodes.size - frontier);
         }
+        stats.addSearch(nodesVisited, counts[0], childrenPruned, counts[1], System.nanoTime() - start);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, using the common ForkJoinPool.
+     * @see #parallelSearch(Object, int, ForkJoinPool, int)
+     */
+    public List<SearchResult<T>> parallelSearch(T t, int radius) {
+        return parallelSearch(t, radius, ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, splitting the traversal
+     * across the threads of a ForkJoinPool. The search starts in the calling thread, and only moves to the pool
+     * once the nodes left to visit reach splitThreshold, so small trees and radii are searched sequentially.
+     * From then on, a task hands half of its nodes to a new task whenever it holds splitThreshold of them.
+     * The distance function must be safe to call from multiple threads.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param pool The pool to run the search in.
+     * @param splitThreshold The number of nodes left to visit at which the search is split, at least 2.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> parallelSearch(T t, int radius, ForkJoinPool pool, int splitThreshold) {
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null.");
+        if (splitThreshold < 2)
+            throw new IllegalArgumentException("splitThreshold must be at least 2.");
+        if (t == null || rootNode == null)
+            return Collections.emptyList();
+
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
+        ResultConsumer<T> consumer = (item, distance) -> searchResults.add(new SearchResult<>(distance, item));
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        int[] queryPivots = pivotDistances(t);
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty() && nextNodes.size < splitThreshold)
+            visit(nextNodes.pop(), query, queryPivots, radius, nextNodes, consumer);
+        if (!nextNodes.isEmpty())
+            searchResults.addAll(pool.invoke(new SearchTask(t, queryPivots, radius, splitThreshold, nextNodes)));
 
         searchResults.trimToSize();
         Collections.sort(searchResults);
         return Collections.unmodifiableList(searchResults);
     }
 
+    /**
+     * Search for the items within a maximum distance of each of several queries.
+     * Queries are walked through the tree together in groups, so each visited node is loaded once
+     * for every query in the group that reaches it, rather than once per query.
+     * @param queries The items to find approximate matches of from the tree.
+     * @param radius The maximum distance from each query.
+     * @return An immutable list with, for each query in iteration order,
+     *         an immutable list of objects, sorted by distance, that approximately match it.
+     */
+    public List<List<SearchResult<T>>> searchAll(Collection<? extends T> queries, int radius) {
+        List<T> queryList = new ArrayList<>(queries);
+        List<List<SearchResult<T>>> searchResults = new ArrayList<>(Collections.nCopies(queryList.size(), null));
+        for (int from = 0; from < queryList.size(); from += SEARCH_ALL_GROUP_SIZE)
+            searchGroup(queryList, from, Math.min(queryList.size(), from + SEARCH_ALL_GROUP_SIZE), radius, searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for the items within a maximum distance of each of several queries,
+     * running groups of queries in parallel in a ForkJoinPool.
+     * The distance function must be safe to call from multiple threads.
+     * @param pool The pool to run the groups of queries in.
+     * @see #searchAll(Collection, int)
+     */
+    public List<List<SearchResult<T>>> searchAll(Collection<? extends T> queries, int radius, ForkJoinPool pool) {
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null.");
+        List<T> queryList = new ArrayList<>(queries);
+        List<List<SearchResult<T>>> searchResults = new ArrayList<>(Collections.nCopies(queryList.size(), null));
+        List<ForkJoinTask<?>> groups = new ArrayList<>();
+        for (int from = 0; from < queryList.size(); from += SEARCH_ALL_GROUP_SIZE) {
+            int groupFrom = from, groupTo = Math.min(queryList.size(), from + SEARCH_ALL_GROUP_SIZE);
+            groups.add(pool.submit(() -> searchGroup(queryList, groupFrom, groupTo, radius, searchResults)));
+        }
+        for (ForkJoinTask<?> group : groups)
+            group.join();
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    // Search for queries[from, to) in one walk of the tree, and set their results in searchResults.
+    private void searchGroup(List<T> queries, int from, int to, int radius,
+                             List<List<SearchResult<T>>> searchResults) {
+        int count = to - from;
+        @SuppressWarnings("unchecked")
+        PreparedQuery<T>[] prepared = (PreparedQuery<T>[]) new PreparedQuery<?>[count];
+        @SuppressWarnings("unchecked")
+        ArrayList<SearchResult<T>>[] groupResults = (ArrayList<SearchResult<T>>[]) new ArrayList<?>[count];
+        int[] active = new int[count]; // Indexes of the queries to walk from the root.
+        int activeCount = 0;
+        for (int i = 0; i < count; i++) {
+            T query = queries.get(from + i);
+            groupResults[i] = new ArrayList<>();
+            if (query != null) {
+                prepared[i] = distanceFunction.prepare(query);
+                active[activeCount++] = i;
+            }
+        }
+
+        ArrayDeque<GroupVisit<T>> nextVisits = new ArrayDeque<>();
+        if (rootNode != null && activeCount > 0)
+            nextVisits.push(new GroupVisit<>(rootNode, active, activeCount));
+        int[] distances = new int[count]; // Distance from the node for each active query.
+
+        while (!nextVisits.isEmpty()) {
+            GroupVisit<T> visit = nextVisits.pop();
+            Node<T> node = visit.node;
+            int maxDistance = addCapped(node.maxChildDistance(), radius);
+            int reaching = 0, lowBound = Integer.MAX_VALUE, highBound = 0;
+            for (int a = 0; a < visit.count; a++) {
+                int q = visit.queries[a];
+                int distance = prepared[q].distanceTo(node.item, maxDistance);
+                if (distance > maxDistance)
+                    continue; // Neither the node nor its children can match this query.
+                if (distance <= radius && !node.deleted)
+                    groupResults[q].add(new SearchResult<>(distance, node.item));
+                visit.queries[reaching] = q; // Compact the queries that may reach a child.
+                distances[reaching++] = distance;
+                lowBound = Math.min(lowBound, Math.max(0, distance - radius));
+                highBound = Math.max(highBound, addCapped(distance, radius));
+            }
+
+            for (int i = node.ceilingIndex(lowBound); i < node.childCount && node.distances[i] <= highBound; i++) {
+                int edge = node.distances[i];
+                int[] childQueries = new int[reaching];
+                int childCount = 0;
+                for (int a = 0; a < reaching; a++) {
+                    if (Math.abs(distances[a] - edge) <= radius)
+                        childQueries[childCount++] = visit.queries[a];
+                }
+                if (childCount > 0)
+                    nextVisits.push(new GroupVisit<>(node.children[i], childQueries, childCount));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            groupResults[i].trimToSize();
+            Collections.sort(groupResults[i]);
+            searchResults.set(from + i, Collections.unmodifiableList(groupResults[i]));
+        }
+    }
+
+    /**
+     * Lazily search for items in the tree that are within a maximum distance from t, closest first.
+     * @see #searchIterator(Object, int)
+     */
+    public Stream<SearchResult<T>> searchStream(T t, int radius) {
+        Spliterator<SearchResult<T>> spliterator = Spliterators.spliteratorUnknownSize(searchIterator(t, radius),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Lazily search for items in the tree that are within a maximum distance from t, in order of distance.
+     * Subtrees are visited best first, by the lowest distance any of their items could have from t,
+     * and a result is returned as soon as no unvisited subtree could hold a closer item.
+     * So reading only the first few results visits only the part of the tree needed to find them,
+     * and the results are never sorted as a whole. Among results at the same distance, the order is unspecified.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An iterator over the results, sorted by distance, which fails if the tree is modified.
+     */
+    public Iterator<SearchResult<T>> searchIterator(T t, int radius) {
+        if (t == null || rootNode == null || radius < 0)
+            return Collections.emptyIterator();
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        PriorityQueue<BestFirstEntry<T>> entries = new PriorityQueue<>();
+        entries.add(new BestFirstEntry<>(0, rootNode, null));
+        return new Iterator<SearchResult<T>>() {
+
+            private final int itModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                if (itModCount != modCount)
+                    throw new ConcurrentModificationException();
+                // Visit subtrees until a result is at the front, so no subtree left can beat it.
+                while (!entries.isEmpty() && entries.peek().node != null) {
+                    BestFirstEntry<T> entry = entries.poll();
+                    Node<T> node = entry.node;
+                    int maxDistance = addCapped(node.maxChildDistance(), radius);
+                    int distance = query.distanceTo(node.item, maxDistance);
+                    if (distance > maxDistance)
+                        continue;
+                    if (distance <= radius && !node.deleted)
+                        entries.add(new BestFirstEntry<>(distance, null, new SearchResult<>(distance, node.item)));
+                    int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+                    for (int i = node.ceilingIndex(lowBound); i < node.childCount && node.distances[i] <= highBound; i++) {
+                        int childLowBound = Math.max(entry.lowBound, Math.abs(distance - node.distances[i]));
+                        entries.add(new BestFirstEntry<>(childLowBound, node.children[i], null));
+                    }
+                }
+                return !entries.isEmpty();
+            }
+
+            @Override
+            public SearchResult<T> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return entries.poll().result;
+            }
+        };
+    }
+
+    /**
+     * Find the k items in the tree closest to t.
+     * @see #nearest(Object, int, int)
+     */
+    public List<SearchResult<T>> nearest(T t, int k) {
+        return nearest(t, k, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find up to k items in the tree closest to t, within a maximum distance.
+     * Subtrees are visited best first, by the lowest distance any of their items could have from t,
+     * and once k items are found the search radius shrinks to only look for closer ones.
+     * Among items at the same distance as the k-th closest, which ones are returned is unspecified.
+     * @param t The item to find the closest matches of from the tree.
+     * @param k The maximum number of items to return, at least 1.
+     * @param maxRadius The maximum distance from t.
+     * @return An immutable list of at most k objects, sorted by distance, closest to t.
+     */
+    public List<SearchResult<T>> nearest(T t, int k, int maxRadius) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1.");
+        if (t == null || rootNode == null || maxRadius < 0)
+            return Collections.emptyList();
+
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        // Sized by the tree rather than k alone, since k may be far larger than the tree.
+        PriorityQueue<SearchResult<T>> nearestResults = new PriorityQueue<>(Math.min(k, length) + 1,
+                Collections.reverseOrder());
+        PriorityQueue<Candidate<T>> candidates = new PriorityQueue<>();
+        candidates.add(new Candidate<>(0, rootNode));
+        int radius = maxRadius;
+
+        while (!candidates.isEmpty()) {
+            Candidate<T> candidate = candidates.poll();
+            if (candidate.lowBound > radius) // No remaining subtree can hold a closer item.
+                break;
+            Node<T> node = candidate.node;
+            int maxChildDistance = node.maxChildDistance();
+            int maxDistance = addCapped(maxChildDistance, radius);
+            int distance = query.distanceTo(node.item, maxDistance);
+            if (distance > maxDistance)
+                continue;
+            if (distance <= radius && !node.deleted) {
+                nearestResults.add(new SearchResult<>(distance, node.item));
+                if (nearestResults.size() > k)
+                    nearestResults.poll(); // Drop the farthest.
+                if (nearestResults.size() == k) // Only strictly closer items can improve the results now.
+                    radius = nearestResults.peek().getDistance() - 1;
+            }
+            int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+            for (int i = node.ceilingIndex(lowBound); i < node.childCount && node.distances[i] <= highBound; i++) {
+                int childLowBound = Math.max(candidate.lowBound, Math.abs(distance - node.distances[i]));
+                candidates.add(new Candidate<>(childLowBound, node.children[i]));
+            }
+        }
+
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>(nearestResults);
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    // Add a non-negative distance and a radius, capping the sum at Integer.MAX_VALUE instead of overflowing.
+    static int addCapped(int distance, int radius) {
+        return radius > Integer.MAX_VALUE - distance ? Integer.MAX_VALUE : distance + radius;
+    }
+
+    // Visit a node: pass its item to the consumer if it matches, and push the children that may match.
+    // If queryPivots is not null, children whose subtrees are ruled out by the pivots are not pushed.
+    private void visit(Node<T> node, PreparedQuery<T> query, int[] queryPivots, int radius,
+                       NodeStack<T> nextNodes, ResultConsumer<? super T> consumer) {
+        // Beyond radius past the farthest child, neither the node nor its children can match.
+        int maxChildDistance = node.maxChildDistance();
+        int maxDistance = addCapped(maxChildDistance, radius);
+        int distance = query.distanceTo(node.item, maxDistance);
+        if (distance > maxDistance)
+            return;
+        if (distance <= radius && !node.deleted)
+            consumer.accept(node.item, distance);
+        int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+        for (int i = node.ceilingIndex(lowBound); i < node.childCount && node.distances[i] <= highBound; i++) {
+            if (queryPivots == null || node.children[i].mayHoldMatch(queryPivots, radius))
+                nextNodes.push(node.children[i]);
+        }
+    }
+
+    /**
+     * Index the tree with a small set of pivots, so that search can skip subtrees without computing
+     * distances to them. Every node stores its item's distance to each pivot, and the range of those
+     * distances over its subtree. Each search computes the query's distance to each pivot once, and by
+     * the triangle inequality, skips any subtree where some pivot's range is more than the radius away
+     * from the query's distance to that pivot. For a leaf, the range is just its own item's distance,
+     * so most leaves that cannot match are skipped.
+     *
+     * Pivots far apart from each other rule out the most, and they need not be in the tree.
+     * Indexing computes the distance from every item to every pivot, and each later add computes one more
+     * per pivot. Each pivot costs one int per leaf and three per node with children.
+     * Only search and parallelSearch use the pivots.
+     * @param pivots The items to measure distances from, or an empty list to stop using pivots.
+     * @see #selectPivots(Collection, int, DistanceFunction)
+     */
+    public void setPivots(List<? extends T> pivots) {
+        for (T pivot : pivots) {
+            if (pivot == null)
+                throw new NullPointerException();
+        }
+        this.pivots = pivots.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(pivots));
+        if (rootNode == null)
+            return;
+
+        List<Node<T>> nodes = new ArrayList<>(length + deletedCount); // Parents before their children.
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty()) {
+            Node<T> node = nextNodes.pop();
+            node.pivotDistances = pivotDistances(node.item);
+            nodes.add(node);
+            for (int i = 0; i < node.childCount; i++)
+                nextNodes.push(node.children[i]);
+        }
+        if (this.pivots.isEmpty())
+            return;
+        for (int n = nodes.size() - 1; n >= 0; n--) { // Children first, so their ranges are complete.
+            Node<T> node = nodes.get(n);
+            for (int i = 0; i < node.childCount; i++)
+                node.includeRanges(node.children[i], this.pivots.size());
+        }
+    }
+
+    /**
+     * @return The pivots the tree is indexed with, or an empty list.
+     */
+    public List<T> getPivots() {
+        return pivots;
+    }
+
+    /**
+     * Pick pivots that are far apart from each other. Each pivot is the item farthest from the pivots
+     * picked before it, and the first is the item farthest from the first item. This computes count distances
+     * per item, so for a large tree pass a random sample of its items.
+     * @param items The items to pick pivots from.
+     * @param count The number of pivots to pick.
+     * @param distanceFunction A function that computes the distance between two objects of type T.
+     * @return Up to count items, fewer if the rest are all at distance 0 from a pivot.
+     */
+    public static <T> List<T> selectPivots(Collection<? extends T> items, int count,
+                                           DistanceFunction<T> distanceFunction) {
+        List<T> candidates = new ArrayList<>(items);
+        List<T> selected = new ArrayList<>(count);
+        if (candidates.isEmpty() || count < 1)
+            return selected;
+        int[] nearestPivot = new int[candidates.size()]; // Distance from each candidate to its nearest pivot.
+        T last = candidates.get(0);
+        for (int i = 0; i < candidates.size(); i++)
+            nearestPivot[i] = distanceFunction.distance(last, candidates.get(i));
+        while (selected.size() < count) {
+            int farthest = 0;
+            for (int i = 1; i < candidates.size(); i++) {
+                if (nearestPivot[i] > nearestPivot[farthest])
+                    farthest = i;
+            }
+            if (nearestPivot[farthest] == 0) // Every candidate is a pivot already, or equivalent to one.
+                break;
+            last = candidates.get(farthest);
+            selected.add(last);
+            for (int i = 0; i < candidates.size(); i++) {
+                int distance = distanceFunction.distance(last, candidates.get(i));
+                nearestPivot[i] = selected.size() == 1 ? distance : Math.min(nearestPivot[i], distance);
+            }
+        }
+        return selected;
+    }
+
+    // The distances from an item to each pivot, or null if the tree has no pivots.
+    private int[] pivotDistances(T item) {
+        if (pivots.isEmpty())
+            return null;
+        int[] distances = new int[pivots.size()];
+        for (int i = 0; i < distances.length; i++)
+            distances[i] = distanceFunction.distance(pivots.get(i), item);
+        return distances;
+    }
+
     /**
      * Add an item to the tree.
      * @param t A non-null, searchable object to add to the tree.
@@ -74,21 +576,32 @@ public class BKTree<T> extends AbstractSet<T> {
     public boolean add(T t) {
         if (t == null)
             throw new NullPointerException();
+        compactIfSparse(); // Catch up on removals by an iterator.
 
+        int[] itemPivots = pivotDistances(t);
         if (rootNode == null) {
             rootNode = new Node<>(t);
+            rootNode.pivotDistances = itemPivots;
             length = 1;
             modCount++; // Modified tree by adding root.
             return true;
         }
 
         Node<T> parentNode = rootNode;
-        Integer distance;
+        NodeStack<T> path = new NodeStack<>(); // The nodes whose subtrees grow if t is added.
+        int distance;
         while ((distance = distanceFunction.distance(parentNode.item, t)) != 0
                 || !t.equals(parentNode.item)) {
-            Node<T> childNode = parentNode.children.get(distance);
+            Node<T> childNode = parentNode.getChild(distance);
+            if (itemPivots != null) // Either way, t ends up in this node's subtree.
+                parentNode.includeRanges(itemPivots);
+            path.push(parentNode);
             if (childNode == null) {
-                parentNode.children.put(distance, new Node<>(t));
+                Node<T> node = new Node<>(t);
+                node.pivotDistances = itemPivots;
+                parentNode.putChild(distance, node);
+                while (!path.isEmpty())
+                    path.pop().subtreeSize++;
                 length++;
                 modCount++; // Modified tree by adding a child.
                 return true;
@@ -96,6 +609,13 @@ public class BKTree<T> extends AbstractSet<T> {
             parentNode = childNode;
         }
 
+        if (parentNode.deleted) { // Revive a removed item. Its place in the tree is still valid.
+            parentNode.deleted = false;
+            deletedCount--;
+            length++;
+            modCount++;
+            return true;
+        }
         return false;
     }
 
@@ -123,35 +643,49 @@ public class BKTree<T> extends AbstractSet<T> {
     }
 
     /**
-     * Remove an object from the tree.
+     * Remove an object from the tree. A leaf is unlinked from its parent, but any other node is only marked
+     * as deleted, so that nothing under it has to be moved. Deleted nodes still guide searches to their
+     * descendants, but are never returned. Once more than half of the nodes are deleted, the tree is compacted.
      * @param o An object that is potentially in the tree.
      * @return If an item was removed.
+     * @see #compact()
      */
     @Override
     public boolean remove(Object o) {
         if (o == null || rootNode == null)
             return false;
-        if (rootNode.item.equals(o)) {
-            length--;
-            rootNode = replaceNode(rootNode);
-            return true;
-        }
         try {
             @SuppressWarnings("unchecked")
             T t = (T)o;
 
-            // Repeat until no matching child is found.
-            for (Node<T> parentNode = rootNode, childNode; parentNode != null; parentNode = childNode) {
-                int distance = distanceFunction.distance(parentNode.item, t);
-                childNode = parentNode.children.get(distance);
-
-                if (childNode != null && childNode.item.equals(t)) { // If a matching child is found, remove the child.
+            Node<T> parentNode = null;
+            NodeStack<T> path = new NodeStack<>(); // The nodes whose subtrees shrink if a leaf is unlinked.
+            int edge = 0;
+            for (Node<T> node = rootNode; node != null; node = node.getChild(edge)) {
+                // A distance past the farthest child cannot lead to a match, so let the function stop there.
+                int distance = distanceFunction.distance(node.item, t, node.maxChildDistance());
+                if (distance == 0 && node.item.equals(t)) {
+                    if (node.deleted)
+                        return false; // Already removed.
                     length--;
-                    childNode = replaceNode(parentNode.children.remove(distance));
-                    if (childNode != null) // If there are descendants, add its replacement to the parent.
-                        parentNode.children.put(distance, childNode);
+                    modCount++;
+                    if (node.childCount == 0) { // A leaf can be unlinked without moving anything else.
+                        if (parentNode == null)
+                            rootNode = null;
+                        else
+                            parentNode.removeChild(edge);
+                        while (!path.isEmpty())
+                            path.pop().subtreeSize--;
+                    } else {
+                        node.deleted = true;
+                        deletedCount++;
+                    }
+                    compactIfSparse(); // Also catches up on removals by an iterator.
                     return true;
                 }
+                parentNode = node;
+                path.push(node);
+                edge = distance;
             }
 
             return false; // No items to remove.
@@ -161,83 +695,392 @@ public class BKTree<T> extends AbstractSet<T> {
     }
 
     /**
-     * Replace a node with its best matching child, and make the other children the new node's descendants.
-     * @param oldNode The original node being replaced.
-     * @return The replacement node, or null if oldNode has no children.
+     * Remove every item that is in the given collection, in one pass over the tree.
+     * @param c The items to remove.
+     * @return If any item was removed.
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c == null)
+            throw new NullPointerException();
+        return removeIf(c::contains);
+    }
+
+    /**
+     * Remove every item that is not in the given collection, in one pass over the tree.
+     * @param c The items to keep.
+     * @return If any item was removed.
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (c == null)
+            throw new NullPointerException();
+        return removeIf(item -> !c.contains(item));
+    }
+
+    /**
+     * Remove every item matching a filter, in one pass over the tree.
+     * Removed items are marked as deleted without computing any distances, then the tree is compacted
+     * if more than half of its nodes are deleted.
+     * @param filter Returns true for the items to remove.
+     * @return If any item was removed.
      */
-    private Node<T> replaceNode(Node<T> oldNode) {
-        modCount++; // Will modify tree when node is replaced.
-        Iterator<Node<T>> entries = oldNode.children.values().iterator();
-        if (!entries.hasNext()) // if the old node has no children, replace with null.
+    @Override
+    public boolean removeIf(Predicate<? super T> filter) {
+        if (filter == null)
+            throw new NullPointerException();
+        if (rootNode == null)
+            return false;
+        boolean removed = false;
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty()) {
+            Node<T> node = nextNodes.pop();
+            if (!node.deleted && filter.test(node.item)) {
+                // Counted as each node is marked, so the tree stays consistent if the filter throws.
+                node.deleted = true;
+                length--;
+                deletedCount++;
+                modCount++;
+                removed = true;
+            }
+            for (int i = 0; i < node.childCount; i++)
+                nextNodes.push(node.children[i]);
+        }
+        if (!removed)
+            return false;
+        compactIfSparse();
+        return true;
+    }
+
+    /**
+     * Remove every item from the tree.
+     */
+    @Override
+    public void clear() {
+        rootNode = null;
+        length = 0;
+        deletedCount = 0;
+        modCount++;
+    }
+
+    /**
+     * Rebuild the subtrees under deleted nodes from their remaining items, so that no deleted nodes are left.
+     * Each subtree is rebuilt in place: every item under a node has the same distance from the node's parent,
+     * so the rebuilt subtree goes back under the same edge. Subtrees without deleted nodes are not touched.
+     */
+    public void compact() {
+        if (deletedCount == 0)
+            return;
+        modCount++;
+        deletedCount = 0;
+        if (rootNode.deleted) {
+            rootNode = rebuild(rootNode);
+            countSubtrees(rootNode);
+            return;
+        }
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(rootNode);
+        while (!nextNodes.isEmpty()) {
+            Node<T> node = nextNodes.pop();
+            for (int i = node.childCount - 1; i >= 0; i--) { // Backwards, since children may be removed.
+                Node<T> child = node.children[i];
+                if (!child.deleted) {
+                    nextNodes.push(child);
+                    continue;
+                }
+                Node<T> rebuilt = rebuild(child);
+                if (rebuilt == null)
+                    node.removeChild(node.distances[i]);
+                else
+                    node.children[i] = rebuilt;
+            }
+        }
+        countSubtrees(rootNode);
+    }
+
+    // Set the subtree size of every node under root, which may be null. No distances are computed.
+    private static <T> void countSubtrees(Node<T> root) {
+        if (root == null)
+            return;
+        List<Node<T>> nodes = new ArrayList<>(); // Parents before their children.
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(root);
+        while (!nextNodes.isEmpty()) {
+            Node<T> node = nextNodes.pop();
+            nodes.add(node);
+            for (int i = 0; i < node.childCount; i++)
+                nextNodes.push(node.children[i]);
+        }
+        for (int n = nodes.size() - 1; n >= 0; n--) { // Children first, so their sizes are complete.
+            Node<T> node = nodes.get(n);
+            node.subtreeSize = 1;
+            for (int i = 0; i < node.childCount; i++)
+                node.subtreeSize += node.children[i].subtreeSize;
+        }
+    }
+
+    private void compactIfSparse() {
+        if (deletedCount > length)
+            compact();
+    }
+
+    // Rebuild the subtree under node from the nodes that are not deleted, or return null if there are none.
+    // The nodes are reused, so their distances to the pivots do not need to be computed again.
+    private Node<T> rebuild(Node<T> node) {
+        List<Node<T>> nodes = new ArrayList<>();
+        NodeStack<T> nextNodes = new NodeStack<>();
+        nextNodes.push(node);
+        while (!nextNodes.isEmpty()) { // Parents before children, so the old shape is mostly kept.
+            Node<T> next = nextNodes.pop();
+            if (!next.deleted)
+                nodes.add(next);
+            for (int i = 0; i < next.childCount; i++)
+                nextNodes.push(next.children[i]);
+        }
+        for (Node<T> next : nodes) {
+            next.clearChildren();
+            if (next.pivotDistances != null) // Drop the old subtree's ranges.
+                next.pivotDistances = Arrays.copyOf(next.pivotDistances, pivots.size());
+        }
+        if (nodes.isEmpty())
             return null;
-        Node<T> newNode = entries.next(); // Otherwise, replace with the closest matching child.
-        while(entries.hasNext()) { // Make other children descendants of new node.
-            Node<T> valNode = entries.next();
-
-            for (Node<T> parentNode = newNode, childNode; ; parentNode = childNode) {
-                Integer distance = distanceFunction.distance(parentNode.item, valNode.item);
-                childNode = parentNode.children.get(distance);
-                if (childNode == null) { // If the child node isn't taken for distance...
-                    parentNode.children.put(distance, valNode); // Make valNode the new child node of parentNode.
+
+        Node<T> root = nodes.get(0);
+        for (int n = 1; n < nodes.size(); n++) {
+            Node<T> next = nodes.get(n);
+            for (Node<T> parentNode = root; ; ) {
+                int distance = distanceFunction.distance(parentNode.item, next.item);
+                if (next.pivotDistances != null)
+                    parentNode.includeRanges(next.pivotDistances);
+                Node<T> childNode = parentNode.getChild(distance);
+                if (childNode == null) {
+                    parentNode.putChild(distance, next);
                     break;
                 }
-            } // Continue until valNode finds new parent.
+                parentNode = childNode;
+            }
         }
-        return newNode;
+        return root;
     }
 
     /**
-     * Iterate though the tree in breadth first order.
+     * Iterate though the tree in breadth first order. Items removed through the iterator are only marked
+     * as deleted, so that other iterators are not disturbed; the next add or remove compacts the tree
+     * if more than half of its nodes are deleted, as with remove.
      * @return An iterator for the tree.
      */
     @Override
     public Iterator<T> iterator() {
-        if (length == 0)
-            return Collections.emptyIterator();
-        ArrayDeque<Node<T>> nextNodes = new ArrayDeque<>();
-        nextNodes.add(rootNode);
-        return new Iterator<T>() {
+        return new NodeIterator(false);
+    }
 
-            private Node<T> lastNode;
-            private int itModCount = modCount;
+    /**
+     * Iterate though the tree in depth first order, visiting each node before its children.
+     * Only the children of the nodes on the current path are held, rather than a whole level of the tree,
+     * so this takes less memory than iterator on wide trees, and visits nodes that were added near each other.
+     * @return An iterator for the tree, which supports remove.
+     */
+    public Iterator<T> depthFirstIterator() {
+        return new NodeIterator(true);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return !nextNodes.isEmpty();
+    /**
+     * Split the tree by subtrees, so that a parallel stream of the tree spreads its items across threads.
+     * Each split hands off the subtrees holding about half of the remaining nodes, using the subtree sizes
+     * kept in every node. Items are visited in depth first order within each part.
+     * The spliterator is SIZED and SUBSIZED only while the tree has no removed nodes left in place,
+     * since those are counted in the subtree sizes but never returned.
+     * @return A late-binding, fail-fast spliterator over the tree.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new NodeSpliterator();
+    }
+
+    // Iterates breadth first with a queue of nodes, or depth first with a stack.
+    private final class NodeIterator implements Iterator<T> {
+        private final ArrayDeque<Node<T>> nextNodes = new ArrayDeque<>();
+        private final boolean depthFirst;
+        private Node<T> lastNode;
+        private int itModCount = modCount;
+
+        NodeIterator(boolean depthFirst) {
+            this.depthFirst = depthFirst;
+            if (rootNode != null)
+                nextNodes.add(rootNode);
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Pass over deleted nodes, but not their children.
+            while (!nextNodes.isEmpty() && nextNodes.peek().deleted)
+                addChildren(nextNodes.poll());
+            return !nextNodes.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ensureNotModified(); // Fail if modified outside remove.
+            lastNode = nextNodes.poll();
+            addChildren(lastNode);
+            return lastNode.item;
+        }
+
+        // Marks the node as deleted, so the tree is not restructured while it is iterated. The tree is compacted
+        // if needed on the next add or remove.
+        @Override
+        public void remove() {
+            if (lastNode == null)
+                throw new IllegalStateException(); // Cannot remove what hasn't been visited.
+            ensureNotModified();
+            lastNode.deleted = true;
+            length--;
+            deletedCount++;
+            modCount++;
+            lastNode = null;
+            itModCount = modCount;
+        }
+
+        // Children are visited in ascending order of distance, so depth first pushes them backwards.
+        private void addChildren(Node<T> node) {
+            if (depthFirst) {
+                for (int i = node.childCount - 1; i >= 0; i--)
+                    nextNodes.push(node.children[i]);
+            } else {
+                for (int i = 0; i < node.childCount; i++)
+                    nextNodes.add(node.children[i]);
             }
+        }
 
-            @Override
-            public T next() {
-                if (!hasNext())
-                    throw new NoSuchElementException();
-                ensureNotModified(); // Fail if modified outside remove.
-                lastNode = nextNodes.poll();
-                nextNodes.addAll(lastNode.children.values());
-                return lastNode.item;
+        // Fail if the tree has been modified outside iterator.
+        private void ensureNotModified() {
+            if (itModCount != modCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    // Visits whole subtrees depth first. Splitting first expands a lone subtree into its root and its children,
+    // keeping the root to visit here, then moves the bottom of the stack of subtrees to the new spliterator.
+    private final class NodeSpliterator implements Spliterator<T> {
+        private NodeStack<T> nextNodes; // Null until the first use, so the spliterator binds late.
+        private Node<T> expandedNode; // A node whose children are on the stack, but whose item is not yet visited.
+        private long remaining; // Exact while sized, otherwise an upper bound.
+        private boolean sized;
+        private boolean subSized;
+        private int expectedModCount;
+
+        NodeSpliterator() {
+        }
+
+        private NodeSpliterator(NodeStack<T> nextNodes, boolean subSized, int expectedModCount) {
+            this.nextNodes = nextNodes;
+            this.remaining = subtreeSizes(nextNodes);
+            this.sized = subSized;
+            this.subSized = subSized;
+            this.expectedModCount = expectedModCount;
+        }
+
+        // Bind to the tree as it is now.
+        private void bind() {
+            if (nextNodes != null)
+                return;
+            nextNodes = new NodeStack<>();
+            if (rootNode != null)
+                nextNodes.push(rootNode);
+            remaining = length;
+            sized = true;
+            subSized = deletedCount == 0;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            bind();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            Node<T> node = expandedNode;
+            expandedNode = null;
+            while (node == null || node.deleted) { // Pass over deleted nodes, but not their children.
+                if (nextNodes.isEmpty())
+                    return false;
+                node = nextNodes.pop();
+                for (int i = 0; i < node.childCount; i++)
+                    nextNodes.push(node.children[i]);
             }
+            remaining = Math.max(0, remaining - 1);
+            action.accept(node.item);
+            return true;
+        }
 
-            @Override
-            public void remove() {
-                if (lastNode == null)
-                    throw new IllegalStateException(); // Cannot remove what hasn't been visited.
-                ensureNotModified();
-                if (!lastNode.children.isEmpty()) {
-                    Node<T> replacementNode = nextNodes.removeLast();
-                    for (int i = lastNode.children.size(); i > 1; i--) // Remove all but first child.
-                        replacementNode = nextNodes.removeLast();
-                    nextNodes.addFirst(replacementNode); // Replace parent in deque with first child.
-                }
-                BKTree.this.remove(lastNode.item);
-                lastNode = null;
-                itModCount = modCount;
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            bind();
+            if (expandedNode != null && !expandedNode.deleted)
+                action.accept(expandedNode.item);
+            expandedNode = null;
+            while (!nextNodes.isEmpty()) {
+                Node<T> node = nextNodes.pop();
+                if (!node.deleted)
+                    action.accept(node.item);
+                for (int i = 0; i < node.childCount; i++)
+                    nextNodes.push(node.children[i]);
             }
+            remaining = 0;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
 
-            // Fail if the tree has been modified outside iterator.
-            private void ensureNotModified() {
-                if (itModCount != modCount)
-                    throw new ConcurrentModificationException();
+        @Override
+        public Spliterator<T> trySplit() {
+            bind();
+            if (nextNodes.size == 1 && expandedNode == null && nextNodes.nodes[0].childCount > 0) {
+                expandedNode = nextNodes.pop();
+                for (int i = 0; i < expandedNode.childCount; i++)
+                    nextNodes.push(expandedNode.children[i]);
             }
-        };
+            if (nextNodes.size < 2)
+                return null;
+
+            // Move the fewest bottom subtrees that hold at least half of the nodes, leaving at least one here.
+            long half = subtreeSizes(nextNodes) >>> 1, moved = 0;
+            int count = 0;
+            while (count < nextNodes.size - 1 && moved < half)
+                moved += nextNodes.nodes[count++].subtreeSize;
+            NodeSpliterator bottom = new NodeSpliterator(nextNodes.splitBottom(count), subSized, expectedModCount);
+            remaining = subtreeSizes(nextNodes) + (expandedNode == null || expandedNode.deleted ? 0 : 1);
+            sized = subSized;
+            return bottom;
+        }
+
+        @Override
+        public long estimateSize() {
+            bind();
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            if (nextNodes == null) // What binding now would give, without binding.
+                return Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.SIZED
+                        | (deletedCount == 0 ? Spliterator.SUBSIZED : 0);
+            return Spliterator.DISTINCT | Spliterator.NONNULL
+                    | (sized ? Spliterator.SIZED : 0) | (subSized ? Spliterator.SUBSIZED : 0);
+        }
+    }
+
+    // The total number of nodes under the nodes on a stack.
+    private static <T> long subtreeSizes(NodeStack<T> nodes) {
+        long size = 0;
+        for (int i = 0; i < nodes.size; i++)
+            size += nodes.nodes[i].subtreeSize;
+        return size;
     }
 
     /**
@@ -248,6 +1091,65 @@ public class BKTree<T> extends AbstractSet<T> {
         return length;
     }
 
+    /**
+     * Measure the shape of the tree, by walking every node, including deleted ones. No distances are computed.
+     * @return The depth, fan-out and edge distance histograms of the tree.
+     */
+    public TreeStats treeStats() {
+        TreeStats.Builder stats = new TreeStats.Builder();
+        if (rootNode == null)
+            return stats.build();
+        ArrayDeque<Node<T>> nextNodes = new ArrayDeque<>();
+        nextNodes.add(rootNode);
+        int depth = 0;
+        while (!nextNodes.isEmpty()) { // Breadth first, one whole level at a time.
+            for (int levelSize = nextNodes.size(); levelSize > 0; levelSize--) {
+                Node<T> node = nextNodes.poll();
+                stats.addNode(depth, node.childCount, node.deleted);
+                for (int i = 0; i < node.childCount; i++) {
+                    stats.addEdge(node.distances[i]);
+                    nextNodes.add(node.children[i]);
+                }
+            }
+            depth++;
+        }
+        return stats.build();
+    }
+
+    /**
+     * Copy the tree into a read-only snapshot that is faster to search and can be shared between threads.
+     * No distances are computed, and later changes to this tree do not affect the snapshot.
+     * @return A snapshot of the tree, with the same items, shape and pivots.
+     */
+    public FrozenBKTree<T> freeze() {
+        return new FrozenBKTree<>(this);
+    }
+
+    // Make a tree from nodes that are already linked, such as ones read from a file. No distances are computed.
+    static <T> BKTree<T> fromNodes(DistanceFunction<T> distanceFunction, Node<T> rootNode, int length,
+                                   int deletedCount) {
+        BKTree<T> tree = new BKTree<>(distanceFunction);
+        tree.rootNode = rootNode;
+        tree.length = length;
+        tree.deletedCount = deletedCount;
+        countSubtrees(rootNode);
+        return tree;
+    }
+
+    // The root node, or null if the tree is empty.
+    Node<T> rootNode() {
+        return rootNode;
+    }
+
+    // The number of times the tree has been modified, which changes on every add and remove.
+    int modCount() {
+        return modCount;
+    }
+
+    DistanceFunction<T> distanceFunction() {
+        return distanceFunction;
+    }
+
     /**
      * A result of the search method in BKTree, containing the item found and its distance from the query.
      * @param <T> The type the BKTree it came from represents.
@@ -287,14 +1189,356 @@ public class BKTree<T> extends AbstractSet<T> {
         }
     }
 
-    // A tree node with multiple children ordered by distance.
-    private static class Node<T> {
+    // A node waiting to be visited by searchGroup, with the indexes of the queries that may match in its subtree.
+    private static final class GroupVisit<T> {
+        private final Node<T> node;
+        private final int[] queries;
+        private final int count;
+
+        GroupVisit(Node<T> node, int[] queries, int count) {
+            this.node = node;
+            this.queries = queries;
+            this.count = count;
+        }
+    }
+
+    // Builds a subtree from a list of items for bulkLoad, forking large child subtrees to other tasks.
+    // Subtrees are built from a work list rather than recursively, so a deep tree cannot overflow the stack.
+    private final class BuildTask extends RecursiveTask<Node<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final AtomicInteger nodeCount;
+
+        BuildTask(List<T> items, AtomicInteger nodeCount) {
+            this.items = items;
+            this.nodeCount = nodeCount;
+        }
+
+        @Override
+        protected Node<T> compute() {
+            Node<T> root = null;
+            ArrayDeque<PendingSubtree<T>> pending = new ArrayDeque<>();
+            pending.push(new PendingSubtree<>(null, 0, items));
+            List<PendingSubtree<T>> forked = new ArrayList<>();
+            List<BuildTask> forkedTasks = new ArrayList<>();
+
+            while (!pending.isEmpty()) {
+                PendingSubtree<T> subtree = pending.pop();
+                if (subtree.parent != null && subtree.items.size() >= BULK_LOAD_PARALLEL_SIZE) {
+                    BuildTask task = new BuildTask(subtree.items, nodeCount);
+                    task.fork();
+                    forked.add(subtree);
+                    forkedTasks.add(task);
+                    continue;
+                }
+
+                Node<T> node = partition(subtree.items, pending);
+                if (subtree.parent == null)
+                    root = node;
+                else
+                    subtree.parent.putChild(subtree.distance, node);
+            }
+
+            for (int i = 0; i < forked.size(); i++)
+                forked.get(i).parent.putChild(forked.get(i).distance, forkedTasks.get(i).join());
+            return root;
+        }
+
+        // Make a node for the medoid of items, and queue the other items as its children's subtrees.
+        private Node<T> partition(List<T> items, ArrayDeque<PendingSubtree<T>> pending) {
+            T pivot = items.get(medoidIndex(items));
+            Node<T> node = new Node<>(pivot);
+            nodeCount.incrementAndGet();
+
+            TreeMap<Integer, List<T>> subtrees = new TreeMap<>();
+            for (T item : items) {
+                if (item == pivot)
+                    continue;
+                int distance = distanceFunction.distance(pivot, item);
+                if (distance == 0 && item.equals(pivot)) // Only add duplicates once.
+                    continue;
+                subtrees.computeIfAbsent(distance, d -> new ArrayList<>()).add(item);
+            }
+            for (Map.Entry<Integer, List<T>> subtree : subtrees.entrySet())
+                pending.push(new PendingSubtree<>(node, subtree.getKey(), subtree.getValue()));
+            return node;
+        }
+
+        // Pick the evenly spaced sample item with the lowest total distance to the rest of the sample.
+        // The sample is at most the square root of the items, so this costs no more than partitioning them.
+        private int medoidIndex(List<T> items) {
+            int size = items.size();
+            int sampleSize = Math.min(BULK_LOAD_MAX_SAMPLE, (int) Math.sqrt(size));
+            if (sampleSize < 3)
+                return 0;
+            int bestIndex = 0;
+            long bestTotal = Long.MAX_VALUE;
+            for (int i = 0; i < sampleSize; i++) {
+                T candidate = items.get((int) ((long) i * size / sampleSize));
+                long total = 0;
+                for (int j = 0; j < sampleSize && total < bestTotal; j++)
+                    total += distanceFunction.distance(candidate, items.get((int) ((long) j * size / sampleSize)));
+                if (total < bestTotal) {
+                    bestTotal = total;
+                    bestIndex = (int) ((long) i * size / sampleSize);
+                }
+            }
+            return bestIndex;
+        }
+    }
+
+    // Items waiting to become the subtree of parent at distance, or the root if parent is null.
+    private static final class PendingSubtree<T> {
+        private final Node<T> parent;
+        private final int distance;
+        private final List<T> items;
+
+        PendingSubtree(Node<T> parent, int distance, List<T> items) {
+            this.parent = parent;
+            this.distance = distance;
+            this.items = items;
+        }
+    }
+
+    // A subtree waiting to be visited by nearest, with the lowest distance any of its items could have.
+    private static final class Candidate<T> implements Comparable<Candidate<T>> {
+        private final int lowBound;
+        private final Node<T> node;
+
+        Candidate(int lowBound, Node<T> node) {
+            this.lowBound = lowBound;
+            this.node = node;
+        }
+
+        @Override
+        public int compareTo(Candidate<T> o) {
+            return Integer.compare(lowBound, o.lowBound);
+        }
+    }
+
+    // A subtree waiting to be visited by searchIterator, or a result waiting to be returned by it.
+    // Results come before subtrees with the same low bound, so they are returned without visiting more nodes.
+    private static final class BestFirstEntry<T> implements Comparable<BestFirstEntry<T>> {
+        private final int lowBound;
+        private final Node<T> node;
+        private final SearchResult<T> result;
+
+        BestFirstEntry(int lowBound, Node<T> node, SearchResult<T> result) {
+            this.lowBound = lowBound;
+            this.node = node;
+            this.result = result;
+        }
+
+        @Override
+        public int compareTo(BestFirstEntry<T> o) {
+            int compare = Integer.compare(lowBound, o.lowBound);
+            return compare != 0 ? compare : Boolean.compare(result == null, o.result == null);
+        }
+    }
+
+    // Searches a share of the tree, handing half of its nodes to a new task whenever it holds splitThreshold.
+    private final class SearchTask extends RecursiveTask<List<SearchResult<T>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final T t;
+        private final int[] queryPivots;
+        private final int radius;
+        private final int splitThreshold;
+        private final NodeStack<T> nextNodes;
+
+        SearchTask(T t, int[] queryPivots, int radius, int splitThreshold, NodeStack<T> nextNodes) {
+            this.t = t;
+            this.queryPivots = queryPivots;
+            this.radius = radius;
+            this.splitThreshold = splitThreshold;
+            this.nextNodes = nextNodes;
+        }
+
+        @Override
+        protected List<SearchResult<T>> compute() {
+            List<SearchResult<T>> searchResults = new ArrayList<>();
+            ResultConsumer<T> consumer = (item, distance) -> searchResults.add(new SearchResult<>(distance, item));
+            PreparedQuery<T> query = distanceFunction.prepare(t); // Prepared queries are not shared between threads.
+            List<SearchTask> forked = new ArrayList<>();
+
+            while (!nextNodes.isEmpty()) {
+                if (nextNodes.size >= splitThreshold) {
+                    SearchTask task = new SearchTask(t, queryPivots, radius, splitThreshold, nextNodes.splitBottom());
+                    task.fork();
+                    forked.add(task);
+                }
+                visit(nextNodes.pop(), query, queryPivots, radius, nextNodes, consumer);
+            }
+
+            for (SearchTask task : forked)
+                searchResults.addAll(task.join());
+            return searchResults;
+        }
+    }
+
+    // A growable stack of nodes left to visit.
+    private static final class NodeStack<T> {
+        private Node<T>[] nodes;
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        NodeStack() {
+            nodes = (Node<T>[]) new Node<?>[16];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(Node<T> node) {
+            if (size == nodes.length)
+                nodes = Arrays.copyOf(nodes, size << 1);
+            nodes[size++] = node;
+        }
+
+        Node<T> pop() {
+            return nodes[--size];
+        }
+
+        // Move the bottom half of the stack, the nodes pushed earliest, to a new stack.
+        NodeStack<T> splitBottom() {
+            return splitBottom(size >>> 1);
+        }
+
+        // Move the bottom count nodes of the stack to a new stack.
+        NodeStack<T> splitBottom(int count) {
+            NodeStack<T> bottom = new NodeStack<>();
+            bottom.nodes = Arrays.copyOf(nodes, Math.max(16, count << 1));
+            bottom.size = count;
+            System.arraycopy(nodes, count, nodes, 0, size - count);
+            Arrays.fill(nodes, size - count, size, null);
+            size -= count;
+            return bottom;
+        }
+    }
+
+    // A tree node with multiple children, kept in parallel arrays sorted by distance.
+    // Leaves share the empty arrays, so most nodes cost no more than the node object itself.
+    // Package-private so that other tree layouts in this package can be built from or written out of a BKTree.
+    static class Node<T> {
+        private static final int[] NO_DISTANCES = new int[0];
+        private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
         public final T item;
-        public final Map<Integer, Node<T>> children;
+        public int[] distances;
+        public Node<T>[] children;
+        public int childCount;
+        public boolean deleted; // Removed from the tree, but kept to guide searches to its children.
+        public int subtreeSize = 1; // The nodes in this node's subtree, including itself and any deleted ones.
+        // With k pivots, the item's distance to each pivot, followed, once the node has had children,
+        // by the lowest and then the highest distance to each pivot over its subtree. Null without pivots.
+        public int[] pivotDistances;
 
+        @SuppressWarnings("unchecked")
         public Node(T item) {
             this.item = item;
-            this.children = new TreeMap<>();
+            this.distances = NO_DISTANCES;
+            this.children = (Node<T>[]) NO_CHILDREN;
+        }
+
+        // Index of the first child with an edge distance of at least distance, or childCount if there is none.
+        public int ceilingIndex(int distance) {
+            int low = 0, high = childCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (distances[mid] < distance)
+                    low = mid + 1;
+                else
+                    high = mid - 1;
+            }
+            return low;
+        }
+
+        // The largest edge distance of any child, or 0 if there are no children.
+        public int maxChildDistance() {
+            return childCount == 0 ? 0 : distances[childCount - 1];
+        }
+
+        public Node<T> getChild(int distance) {
+            int i = ceilingIndex(distance);
+            return i < childCount && distances[i] == distance ? children[i] : null;
+        }
+
+        // Set the child at distance, replacing any existing child at that distance.
+        public void putChild(int distance, Node<T> child) {
+            int i = ceilingIndex(distance);
+            if (i < childCount && distances[i] == distance) {
+                children[i] = child;
+                return;
+            }
+            if (childCount == distances.length) { // Grow by half, starting from 2 slots.
+                int capacity = Math.max(2, childCount + (childCount >> 1));
+                distances = Arrays.copyOf(distances, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(distances, i, distances, i + 1, childCount - i);
+            System.arraycopy(children, i, children, i + 1, childCount - i);
+            distances[i] = distance;
+            children[i] = child;
+            childCount++;
+        }
+
+        // Remove every child.
+        @SuppressWarnings("unchecked")
+        public void clearChildren() {
+            distances = NO_DISTANCES;
+            children = (Node<T>[]) NO_CHILDREN;
+            childCount = 0;
+        }
+
+        // Widen the pivot ranges of the subtree to include an item's distances to the pivots.
+        public void includeRanges(int[] itemPivots) {
+            includeRanges(itemPivots, 0, itemPivots, 0, itemPivots.length);
+        }
+
+        // Widen the pivot ranges of the subtree to include a child's subtree, given k pivots.
+        public void includeRanges(Node<T> child, int k) {
+            boolean childRanges = child.pivotDistances.length > k;
+            includeRanges(child.pivotDistances, childRanges ? k : 0, child.pivotDistances, childRanges ? 2 * k : 0, k);
+        }
+
+        private void includeRanges(int[] low, int lowOffset, int[] high, int highOffset, int k) {
+            if (pivotDistances.length == k) { // Start the ranges from the node's own item.
+                int[] ranges = Arrays.copyOf(pivotDistances, 3 * k);
+                System.arraycopy(pivotDistances, 0, ranges, k, k);
+                System.arraycopy(pivotDistances, 0, ranges, 2 * k, k);
+                pivotDistances = ranges;
+            }
+            for (int i = 0; i < k; i++) {
+                pivotDistances[k + i] = Math.min(pivotDistances[k + i], low[lowOffset + i]);
+                pivotDistances[2 * k + i] = Math.max(pivotDistances[2 * k + i], high[highOffset + i]);
+            }
+        }
+
+        // If an item within radius of a query could be in this subtree, given the query's distances to the pivots.
+        public boolean mayHoldMatch(int[] queryPivots, int radius) {
+            int k = queryPivots.length;
+            int minOffset = pivotDistances.length > k ? k : 0, maxOffset = pivotDistances.length > k ? 2 * k : 0;
+            for (int i = 0; i < k; i++) {
+                if (queryPivots[i] - radius > pivotDistances[maxOffset + i]
+                        || queryPivots[i] + radius < pivotDistances[minOffset + i])
+                    return false;
+            }
+            return true;
+        }
+
+        // Remove and return the child at distance, or null if there is none.
+        public Node<T> removeChild(int distance) {
+            int i = ceilingIndex(distance);
+            if (i == childCount || distances[i] != distance)
+                return null;
+            Node<T> child = children[i];
+            childCount--;
+            System.arraycopy(distances, i + 1, distances, i, childCount - i);
+            System.arraycopy(children, i + 1, children, i, childCount - i);
+            children[childCount] = null; // Let the removed child be collected.
+            return child;
         }
     }
 }
@@ -0,0 +1,405 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static com.skscd91.bktree.BKTree.addCapped;
+
+/**
+ * A thread-safe BKTree, where searches never block and never block writers.
+ *
+ * Each node publishes its children as an immutable, copy-on-write array, swapped in with compare-and-set,
+ * so add is lock-free and readers always see a consistent set of children.
+ * Removing an item marks its node as deleted; a deleted leaf is then unlinked from its parent,
+ * while a deleted node with children stays in place to route searches to its descendants.
+ * A writer that meets a leaf being unlinked finishes unlinking it itself, so no writer waits on another.
+ *
+ * Iterators are weakly consistent: they never throw ConcurrentModificationException, and reflect
+ * some, but not necessarily all, changes made while iterating.
+ *
+ * @param <T> A type with a metric distance function, as in BKTree.
+ * @see BKTree
+ */
+public class ConcurrentBKTree<T> extends AbstractSet<T> {
+
+    private final DistanceFunction<T> distanceFunction;
+    private final AtomicReference<Node<T>> rootNode = new AtomicReference<>();
+    private final AtomicInteger length = new AtomicInteger();
+
+    /**
+     * @param distanceFunction A function that computes the distance between two objects of type T.
+     */
+    public ConcurrentBKTree(DistanceFunction<T> distanceFunction) {
+        if (distanceFunction == null)
+            throw new NullPointerException("distanceFunction cannot be null.");
+
+        this.distanceFunction = distanceFunction;
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> search(T t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found. Items added or removed during the search may or may not be seen.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        Node<T> root = rootNode.get();
+        if (t == null || root == null)
+            return;
+
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        @SuppressWarnings("unchecked")
+        Node<T>[] nextNodes = (Node<T>[]) new Node<?>[16]; // Depth first stack, grown as needed.
+        nextNodes[0] = root;
+        int top = 1;
+
+        while (top > 0) {
+            Node<T> nextNode = nextNodes[--top];
+            Children<T> children = nextNode.children; // Read once, so the node is seen consistently.
+            int maxChildDistance = children.maxDistance();
+            int maxDistance = addCapped(maxChildDistance, radius);
+            int distance = query.distanceTo(nextNode.item, maxDistance);
+            if (distance > maxDistance)
+                continue;
+            if (distance <= radius && !children.deleted)
+                consumer.accept(nextNode.item, distance);
+            int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+            for (int i = children.ceilingIndex(lowBound);
+                 i < children.distances.length && children.distances[i] <= highBound; i++) {
+                if (top == nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, top << 1);
+                nextNodes[top++] = children.nodes[i];
+            }
+        }
+    }
+
+    /**
+     * Add an item to the tree.
+     * @param t A non-null, searchable object to add to the tree.
+     * @return If t did not already exist in the tree.
+     */
+    @Override
+    public boolean add(T t) {
+        if (t == null)
+            throw new NullPointerException();
+
+        restart:
+        for (;;) {
+            Node<T> parentNode = rootNode.get();
+            if (parentNode == null) {
+                if (rootNode.compareAndSet(null, new Node<>(t))) {
+                    length.incrementAndGet();
+                    return true;
+                }
+                continue;
+            }
+
+            Node<T> grandparentNode = null; // The root is never unlinked, so it has no parent to help with.
+            int parentDistance = 0;
+            for (;;) {
+                int distance = distanceFunction.distance(parentNode.item, t);
+                boolean isEqual = distance == 0 && t.equals(parentNode.item);
+                Node<T> childNode;
+                for (;;) { // Retry on the same node until its children are updated or a child is found.
+                    Children<T> children = parentNode.children;
+                    if (children.frozen) { // The node is being unlinked, so finish that, and find t's place again.
+                        detach(grandparentNode, parentDistance, parentNode);
+                        continue restart;
+                    }
+                    if (isEqual) {
+                        if (!children.deleted)
+                            return false;
+                        if (parentNode.compareAndSetChildren(children, children.withDeleted(false))) {
+                            length.incrementAndGet(); // Revived a deleted node.
+                            return true;
+                        }
+                        continue;
+                    }
+                    childNode = children.get(distance);
+                    if (childNode != null)
+                        break;
+                    if (parentNode.compareAndSetChildren(children, children.with(distance, new Node<>(t)))) {
+                        length.incrementAndGet();
+                        return true;
+                    }
+                }
+                grandparentNode = parentNode;
+                parentDistance = distance;
+                parentNode = childNode;
+            }
+        }
+    }
+
+    /**
+     * Check if the given object is in the tree.
+     * @param o An object that is potentially in the tree.
+     * @return If the tree contains object o.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || rootNode.get() == null)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            List<SearchResult<T>> searchList = search((T) o, 0); // Find objects exactly matching o.
+            for (SearchResult<T> result : searchList) {
+                if (result.getItem().equals(o))
+                    return true;
+            }
+            return false;
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    /**
+     * Remove an object from the tree.
+     * @param o An object that is potentially in the tree.
+     * @return If an item was removed.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            T t = (T) o;
+
+            restart:
+            for (;;) {
+                Node<T> parentNode = null, node = rootNode.get();
+                int parentDistance = 0;
+                while (node != null) {
+                    Children<T> children = node.children;
+                    if (children.frozen) {
+                        detach(parentNode, parentDistance, node);
+                        continue restart;
+                    }
+                    int distance = distanceFunction.distance(node.item, t, children.maxDistance());
+                    if (distance == 0 && t.equals(node.item)) {
+                        for (; !children.deleted; children = node.children) {
+                            if (children.frozen) {
+                                detach(parentNode, parentDistance, node);
+                                continue restart;
+                            }
+                            if (node.compareAndSetChildren(children, children.withDeleted(true))) {
+                                length.decrementAndGet();
+                                if (parentNode != null)
+                                    unlink(parentNode, parentDistance, node);
+                                return true;
+                            }
+                        }
+                        return false; // Already deleted.
+                    }
+                    parentNode = node;
+                    parentDistance = distance;
+                    node = children.get(distance);
+                }
+                return false; // No items to remove.
+            }
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    // Unlink node from parentNode if it is still a deleted leaf. It is frozen first, so no child can be added.
+    private static <T> void unlink(Node<T> parentNode, int distance, Node<T> node) {
+        Children<T> children = node.children;
+        if (!children.deleted || children.frozen || children.distances.length > 0
+                || !node.compareAndSetChildren(children, Children.frozen()))
+            return; // Keep it; it still routes to children, or was revived.
+        detach(parentNode, distance, node);
+    }
+
+    // Remove the frozen node from parentNode, unless another thread already has. Any thread that finds a frozen
+    // node calls this, so a thread that stalls between freezing a node and detaching it holds up no other thread.
+    private static <T> void detach(Node<T> parentNode, int distance, Node<T> node) {
+        for (;;) { // The parent cannot be frozen, since it still has node as a child.
+            Children<T> parentChildren = parentNode.children;
+            if (parentChildren.get(distance) != node
+                    || parentNode.compareAndSetChildren(parentChildren, parentChildren.without(distance)))
+                return;
+        }
+    }
+
+    /**
+     * Iterate though the tree in breadth first order. The iterator is weakly consistent.
+     * @return An iterator for the tree.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        ArrayDeque<Node<T>> nextNodes = new ArrayDeque<>();
+        Node<T> root = rootNode.get();
+        if (root != null)
+            nextNodes.add(root);
+        return new Iterator<T>() {
+
+            private T nextItem = advance(), lastItem;
+
+            // Find the next item that has not been deleted.
+            private T advance() {
+                while (!nextNodes.isEmpty()) {
+                    Node<T> node = nextNodes.poll();
+                    Children<T> children = node.children;
+                    Collections.addAll(nextNodes, children.nodes);
+                    if (!children.deleted)
+                        return node.item;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextItem != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                lastItem = nextItem;
+                nextItem = advance();
+                return lastItem;
+            }
+
+            @Override
+            public void remove() {
+                if (lastItem == null)
+                    throw new IllegalStateException(); // Cannot remove what hasn't been visited.
+                ConcurrentBKTree.this.remove(lastItem);
+                lastItem = null;
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    @Override
+    public int size() {
+        return length.get();
+    }
+
+    // A tree node, whose children and deleted state are replaced together as one immutable value.
+    private static class Node<T> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Children> CHILDREN_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Children.class, "children");
+
+        public final T item;
+        public volatile Children<T> children;
+
+        public Node(T item) {
+            this.item = item;
+            this.children = Children.empty(false);
+        }
+
+        public boolean compareAndSetChildren(Children<T> expect, Children<T> update) {
+            return CHILDREN_UPDATER.compareAndSet(this, expect, update);
+        }
+    }
+
+    // An immutable set of children sorted by distance, with the deleted state of the node that owns them.
+    private static final class Children<T> {
+        private static final Children<?> LIVE_LEAF = new Children<>(new int[0], new Node<?>[0], false, false);
+        private static final Children<?> DELETED_LEAF = new Children<>(new int[0], new Node<?>[0], true, false);
+        private static final Children<?> FROZEN = new Children<>(new int[0], new Node<?>[0], true, true);
+
+        public final int[] distances;
+        public final Node<T>[] nodes;
+        public final boolean deleted;
+        public final boolean frozen; // A deleted leaf being unlinked, which can no longer change.
+
+        @SuppressWarnings("unchecked")
+        private Children(int[] distances, Node<?>[] nodes, boolean deleted, boolean frozen) {
+            this.distances = distances;
+            this.nodes = (Node<T>[]) nodes;
+            this.deleted = deleted;
+            this.frozen = frozen;
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <T> Children<T> empty(boolean deleted) {
+            return (Children<T>) (deleted ? DELETED_LEAF : LIVE_LEAF);
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <T> Children<T> frozen() {
+            return (Children<T>) FROZEN;
+        }
+
+        // The largest edge distance of any child, or 0 if there are no children.
+        public int maxDistance() {
+            return distances.length == 0 ? 0 : distances[distances.length - 1];
+        }
+
+        // Index of the first child with an edge distance of at least distance.
+        public int ceilingIndex(int distance) {
+            int i = Arrays.binarySearch(distances, distance);
+            return i >= 0 ? i : -(i + 1);
+        }
+
+        public Node<T> get(int distance) {
+            int i = Arrays.binarySearch(distances, distance);
+            return i >= 0 ? nodes[i] : null;
+        }
+
+        public Children<T> withDeleted(boolean deleted) {
+            if (distances.length == 0)
+                return empty(deleted);
+            return new Children<>(distances, nodes, deleted, false);
+        }
+
+        // A copy with child inserted at distance, which must not already have a child.
+        public Children<T> with(int distance, Node<T> child) {
+            int i = ceilingIndex(distance), count = distances.length;
+            int[] newDistances = new int[count + 1];
+            Node<?>[] newNodes = new Node<?>[count + 1];
+            System.arraycopy(distances, 0, newDistances, 0, i);
+            System.arraycopy(nodes, 0, newNodes, 0, i);
+            newDistances[i] = distance;
+            newNodes[i] = child;
+            System.arraycopy(distances, i, newDistances, i + 1, count - i);
+            System.arraycopy(nodes, i, newNodes, i + 1, count - i);
+            return new Children<>(newDistances, newNodes, deleted, false);
+        }
+
+        // A copy without the child at distance, which must exist.
+        public Children<T> without(int distance) {
+            int i = ceilingIndex(distance), count = distances.length;
+            if (count == 1)
+                return empty(deleted);
+            int[] newDistances = new int[count - 1];
+            Node<?>[] newNodes = new Node<?>[count - 1];
+            System.arraycopy(distances, 0, newDistances, 0, i);
+            System.arraycopy(nodes, 0, newNodes, 0, i);
+            System.arraycopy(distances, i + 1, newDistances, i, count - i - 1);
+            System.arraycopy(nodes, i + 1, newNodes, i, count - i - 1);
+            return new Children<>(newDistances, newNodes, deleted, false);
+        }
+    }
+}
@@ -7,4 +7,25 @@ package com.skscd91.bktree;
  */
 public interface DistanceFunction<T> {
     int distance(T left, T right);
+
+    /**
+     * Compute the distance between two objects, allowing the function to stop early once the distance is
+     * known to be greater than maxDistance. The default implementation always computes the full distance.
+     * @param maxDistance The largest distance the caller is interested in.
+     * @return The exact distance if it is at most maxDistance,
+     *         otherwise a value greater than maxDistance that is no greater than the exact distance.
+     */
+    default int distance(T left, T right, int maxDistance) {
+        return distance(left, right);
+    }
+
+    /**
+     * Prepare a query to be compared against many items, so that work depending only on the query is done once.
+     * BKTree calls this once per search. The default implementation does no preparation.
+     * @param query The object all items will be compared to.
+     * @return A query that computes distance(item, query, maxDistance) for each item.
+     */
+    default PreparedQuery<T> prepare(T query) {
+        return (item, maxDistance) -> distance(item, query, maxDistance);
+    }
 }
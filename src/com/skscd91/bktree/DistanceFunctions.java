@@ -1,5 +1,7 @@
 package com.skscd91.bktree;
 
+import java.util.Arrays;
+
 /**
  * Various distance functions for use with the BKTree.
  *
@@ -39,12 +41,100 @@ public final class DistanceFunctions {
         return new LevenshteinDistanceFunction(isCaseSensitive);
     }
 
-    // Compare characters a and b for equality, comparing upper case variants when case insensitive.
-    private static boolean charEquals(char a, char b, boolean isCaseSensitive) {
-        if (isCaseSensitive)
-            return a == b;
+    /**
+     * @return A case sensitive, bit-parallel Levenshtein Distance function to compare CharSequence objects.
+     */
+    public static DistanceFunction<CharSequence> myersLevenshteinDistance() {
+        return myersLevenshteinDistance(true);
+    }
+
+    /**
+     * A Levenshtein Distance function that gives the same results as levenshteinDistance,
+     * but processes up to 64 characters of the query at once.
+     * Queries prepared by this function keep their character bitmasks between comparisons.
+     * @param isCaseSensitive Toggle the case sensitivity of the function.
+     * @return A bit-parallel Levenshtein Distance function to compare CharSequence objects.
+     */
+    public static DistanceFunction<CharSequence> myersLevenshteinDistance(boolean isCaseSensitive) {
+        return new MyersLevenshteinDistanceFunction(isCaseSensitive);
+    }
+
+    /**
+     * @return A case sensitive Damerau-Levenshtein Distance function to compare CharSequence objects.
+     */
+    public static DistanceFunction<CharSequence> damerauLevenshteinDistance() {
+        return damerauLevenshteinDistance(true);
+    }
+
+    /**
+     * A Levenshtein Distance function that also counts swapping two adjacent characters as one edit,
+     * for typing errors. This is the unrestricted Damerau-Levenshtein distance, where characters may be
+     * edited again after being swapped, which unlike the optimal string alignment distance is a metric.
+     * @param isCaseSensitive Toggle the case sensitivity of the function.
+     * @return A Damerau-Levenshtein Distance function to compare CharSequence objects.
+     */
+    public static DistanceFunction<CharSequence> damerauLevenshteinDistance(boolean isCaseSensitive) {
+        return new DamerauLevenshteinDistanceFunction(isCaseSensitive);
+    }
+
+    /**
+     * A case sensitive Levenshtein Distance function with its own costs, such as a lower cost for substituting
+     * characters next to each other on a keyboard.
+     * @param indelCost The cost of inserting or deleting a character, at least 1.
+     * @param substitutionCost The cost of substituting one character for a different one, at least 1,
+     *                         which should be a metric for BKTree searches to be exact.
+     * @return A weighted Levenshtein Distance function to compare CharSequence objects.
+     * @throws IllegalArgumentException If indelCost is less than 1. The returned function throws it too
+     *                                  if substitutionCost gives a cost less than 1.
+     */
+    public static DistanceFunction<CharSequence> weightedLevenshteinDistance(int indelCost,
+                                                                            SubstitutionCost substitutionCost) {
+        if (indelCost < 1)
+            throw new IllegalArgumentException("indelCost must be at least 1.");
+        if (substitutionCost == null)
+            throw new NullPointerException("substitutionCost cannot be null.");
+        return new WeightedLevenshteinDistanceFunction(indelCost, substitutionCost);
+    }
+
+    /**
+     * @return A Hamming Distance function to compare 64-bit fingerprints, by the number of bits that differ.
+     * @see LongBKTree
+     */
+    public static DistanceFunction<Long> bitHammingDistance() {
+        return (left, right) -> Long.bitCount(left ^ right);
+    }
+
+    /**
+     * @return A Hamming Distance function to compare fingerprints of equal numbers of longs,
+     *         by the number of bits that differ.
+     * @see LongBKTree
+     */
+    public static DistanceFunction<long[]> bitArrayHammingDistance() {
+        return (left, right) -> {
+            if (left.length != right.length)
+                throw new IllegalArgumentException("Fingerprints must be the same length.");
+            int distance = 0;
+            for (int i = 0; i < left.length; i++)
+                distance += Long.bitCount(left[i] ^ right[i]);
+            return distance;
+        };
+    }
+
+    // Fold c to upper case, as Character.toUpperCase does, without the lookup for ASCII characters.
+    private static char foldCase(char c) {
+        if (c < 128)
+            return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+        return Character.toUpperCase(c);
+    }
 
-        return Character.toUpperCase(a) == Character.toUpperCase(b);
+    // Copy the characters of s, folded to upper case when case insensitive, so they can be compared with ==.
+    private static char[] chars(CharSequence s, boolean isCaseSensitive) {
+        if (isCaseSensitive && s instanceof String)
+            return ((String) s).toCharArray();
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = isCaseSensitive ? s.charAt(i) : foldCase(s.charAt(i));
+        return chars;
     }
 
     /**
@@ -60,22 +150,52 @@ public final class DistanceFunctions {
 
         @Override
         public int distance(CharSequence left, CharSequence right) {
+            return distance(left, right, Integer.MAX_VALUE);
+        }
+
+        // Stop counting as soon as there are more than maxDistance mismatches.
+        @Override
+        public int distance(CharSequence left, CharSequence right, int maxDistance) {
             if (left.length() != right.length())
                 throw new IllegalArgumentException(left + " and " + right + " are not different lengths.");
             int wordDistance = 0;
 
-            for (int i = 0; i < left.length(); i++) {
-                if (!charEquals(left.charAt(i), right.charAt(i), isCaseSensitive))
+            // Only characters that differ exactly need to be folded.
+            for (int i = 0; i < left.length() && wordDistance <= maxDistance; i++) {
+                char a = left.charAt(i), b = right.charAt(i);
+                if (a != b && (isCaseSensitive || foldCase(a) != foldCase(b)))
                     wordDistance++;
             }
 
             return wordDistance;
         }
+
+        // Fold the query once, so each item character is folded at most once.
+        @Override
+        public PreparedQuery<CharSequence> prepare(CharSequence query) {
+            if (isCaseSensitive)
+                return (item, maxDistance) -> distance(item, query, maxDistance);
+
+            char[] folded = chars(query, false);
+            return (item, maxDistance) -> {
+                if (item.length() != folded.length)
+                    throw new IllegalArgumentException(item + " and " + query + " are not different lengths.");
+                int wordDistance = 0;
+                for (int i = 0; i < folded.length && wordDistance <= maxDistance; i++) {
+                    char c = item.charAt(i);
+                    if (c != folded[i] && foldCase(c) != folded[i])
+                        wordDistance++;
+                }
+                return wordDistance;
+            };
+        }
     }
 
     /**
      * Word distance by letter substitutions, insertions, and deletions
      * See https://en.wikipedia.org/wiki/Levenshtein_distance#Iterative_with_two_matrix_rows
+     * Both words are copied to the thread's scratch buffers first, folding their case once when case insensitive,
+     * so the matrix compares raw characters without allocating.
      */
     private static class LevenshteinDistanceFunction implements DistanceFunction<CharSequence> {
 
@@ -87,8 +207,35 @@ public final class DistanceFunctions {
 
         @Override
         public int distance(CharSequence left, CharSequence right) {
-            int leftLength = left.length(), rightLength = right.length();
+            return distance(left, right, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int distance(CharSequence left, CharSequence right, int maxDistance) {
+            int lengthDifference = Math.abs(left.length() - right.length());
+            if (lengthDifference > maxDistance) // Skip copying either word.
+                return lengthDifference;
+            Scratch scratch = Scratch.LOCAL.get();
+            return distance(scratch.left(left, isCaseSensitive), left.length(),
+                    scratch.right(right, isCaseSensitive), right.length(), maxDistance, scratch);
+        }
+
+        // Copy and fold the query once per search, instead of once per item.
+        @Override
+        public PreparedQuery<CharSequence> prepare(CharSequence query) {
+            char[] right = chars(query, isCaseSensitive);
+            return (item, maxDistance) -> {
+                int lengthDifference = Math.abs(item.length() - right.length);
+                if (lengthDifference > maxDistance)
+                    return lengthDifference;
+                Scratch scratch = Scratch.LOCAL.get();
+                return distance(scratch.left(item, isCaseSensitive), item.length(), right, right.length,
+                        maxDistance, scratch);
+            };
+        }
 
+        // The two rows are kept in one scratch buffer, at the offsets current and next.
+        private static int distance(char[] left, int leftLength, char[] right, int rightLength, Scratch scratch) {
             // special cases.
             if (leftLength == 0)
                 return rightLength;
@@ -96,31 +243,542 @@ public final class DistanceFunctions {
                 return leftLength;
 
             // Use the iterative matrix method.
-            int[] currentRow = new int[rightLength + 1];
-            int[] nextRow    = new int[rightLength + 1];
+            int[] rows = scratch.matrix(2 * (rightLength + 1));
+            int current = 0, next = rightLength + 1;
 
             // Fill first row with all edit counts.
             for (int i = 0; i <= rightLength; i++)
-                currentRow[i] = i;
+                rows[current + i] = i;
 
             for (int i = 1; i <= leftLength; i++) {
-                nextRow[0] = i;
+                rows[next] = i;
+                char leftChar = left[i - 1];
 
                 for(int j = 1; j <= rightLength; j++) {
-                    int subDistance = currentRow[j - 1]; // Distance without insertions or deletions.
-                    if (!charEquals(left.charAt(i - 1), right.charAt(j - 1), isCaseSensitive))
+                    int subDistance = rows[current + j - 1]; // Distance without insertions or deletions.
+                    if (leftChar != right[j - 1])
                             subDistance++; // Add one edit if letters are different.
-                    nextRow[j] = Math.min(Math.min(nextRow[j - 1], currentRow[j]) + 1, subDistance);
+                    rows[next + j] = Math.min(Math.min(rows[next + j - 1], rows[current + j]) + 1, subDistance);
                 }
 
                 // Swap rows, use last row for next row.
-                int[] t = currentRow;
-                currentRow = nextRow;
-                nextRow = t;
+                int t = current;
+                current = next;
+                next = t;
+            }
+
+            return rows[current + rightLength];
+        }
+
+        /**
+         * Compute only the diagonal band of width maxDistance, and stop once a whole row exceeds it.
+         * See Ukkonen, "Algorithms for approximate string matching" (1985).
+         */
+        private static int distance(char[] left, int leftLength, char[] right, int rightLength, int maxDistance,
+                                    Scratch scratch) {
+            // The length difference is a lower bound on the distance.
+            int lengthDifference = Math.abs(leftLength - rightLength);
+            if (lengthDifference > maxDistance)
+                return lengthDifference;
+            if (maxDistance >= Math.max(leftLength, rightLength)) // The band covers the whole matrix.
+                return distance(left, leftLength, right, rightLength, scratch);
+
+            int outside = maxDistance + 1; // Stands in for every distance beyond maxDistance.
+            int[] rows = scratch.matrix(2 * (rightLength + 1));
+            int current = 0, next = rightLength + 1;
+
+            for (int i = 0; i <= rightLength; i++)
+                rows[current + i] = i <= maxDistance ? i : outside;
+
+            for (int i = 1; i <= leftLength; i++) {
+                int from = Math.max(1, i - maxDistance), to = Math.min(rightLength, i + maxDistance);
+                rows[next + from - 1] = from == 1 && i <= maxDistance ? i : outside;
+                int rowMinimum = rows[next + from - 1];
+                char leftChar = left[i - 1];
+
+                for (int j = from; j <= to; j++) {
+                    int subDistance = rows[current + j - 1];
+                    if (leftChar != right[j - 1])
+                        subDistance++;
+                    int cell = Math.min(Math.min(Math.min(rows[next + j - 1], rows[current + j]) + 1, subDistance),
+                            outside);
+                    rows[next + j] = cell;
+                    rowMinimum = Math.min(rowMinimum, cell);
+                }
+                if (to < rightLength) // The next row reads one cell past this row's band.
+                    rows[next + to + 1] = outside;
+
+                if (rowMinimum > maxDistance) // Every path to the end passes through this row.
+                    return outside;
+
+                int t = current;
+                current = next;
+                next = t;
+            }
+
+            return rows[current + rightLength];
+        }
+
+    }
+
+    /**
+     * Buffers reused by the distance functions on each thread, so comparisons do not allocate.
+     * Each buffer only grows, to the largest size needed so far.
+     */
+    private static final class Scratch {
+        private static final ThreadLocal<Scratch> LOCAL = ThreadLocal.withInitial(Scratch::new);
+        private static final int ASCII_SIZE = 128;
+
+        private char[] left = new char[32], right = new char[32], alphabet = new char[32];
+        private int[] leftIds = new int[32], rightIds = new int[32], lastRows = new int[32];
+        private int[] matrix = new int[256];
+        // One Myers bitmask per ASCII character, then an empty slot, all zero between uses.
+        private final long[] myersMasks = new long[ASCII_SIZE + 1];
+
+        // Copy s into the left buffer, folded to upper case when case insensitive.
+        char[] left(CharSequence s, boolean isCaseSensitive) {
+            if (left.length < s.length())
+                left = new char[Math.max(s.length(), left.length << 1)];
+            copy(s, isCaseSensitive, left);
+            return left;
+        }
+
+        // Copy s into the right buffer, folded to upper case when case insensitive.
+        char[] right(CharSequence s, boolean isCaseSensitive) {
+            if (right.length < s.length())
+                right = new char[Math.max(s.length(), right.length << 1)];
+            copy(s, isCaseSensitive, right);
+            return right;
+        }
+
+        private static void copy(CharSequence s, boolean isCaseSensitive, char[] chars) {
+            if (isCaseSensitive && s instanceof String) {
+                ((String) s).getChars(0, s.length(), chars, 0);
+                return;
+            }
+            for (int i = 0; i < s.length(); i++)
+                chars[i] = isCaseSensitive ? s.charAt(i) : foldCase(s.charAt(i));
+        }
+
+        // A buffer of at least size ints, with any contents, which the caller overwrites.
+        int[] matrix(int size) {
+            if (matrix.length < size)
+                matrix = new int[Math.max(size, matrix.length << 1)];
+            return matrix;
+        }
+
+        // Number the characters of right[0, rightLength) into rightIds, give each character of left
+        // the same number or -1 in leftIds, and clear lastRows for each number.
+        // ASCII words are numbered by character, and others by their rank among right's distinct characters.
+        void numberCharacters(char[] left, int leftLength, char[] right, int rightLength) {
+            if (leftIds.length < leftLength)
+                leftIds = new int[Math.max(leftLength, leftIds.length << 1)];
+            if (rightIds.length < rightLength)
+                rightIds = new int[Math.max(rightLength, rightIds.length << 1)];
+
+            char highest = 0;
+            for (int j = 0; j < rightLength; j++)
+                highest = (char) Math.max(highest, right[j]);
+            int distinct = 0;
+            if (highest < ASCII_SIZE) {
+                for (int j = 0; j < rightLength; j++)
+                    rightIds[j] = right[j];
+                for (int i = 0; i < leftLength; i++)
+                    leftIds[i] = left[i] < ASCII_SIZE ? left[i] : -1;
+                distinct = ASCII_SIZE;
+            } else {
+                if (alphabet.length < rightLength)
+                    alphabet = new char[Math.max(rightLength, alphabet.length << 1)];
+                System.arraycopy(right, 0, alphabet, 0, rightLength);
+                Arrays.sort(alphabet, 0, rightLength);
+                for (int i = 0; i < rightLength; i++) {
+                    if (distinct == 0 || alphabet[distinct - 1] != alphabet[i])
+                        alphabet[distinct++] = alphabet[i];
+                }
+                for (int j = 0; j < rightLength; j++)
+                    rightIds[j] = Arrays.binarySearch(alphabet, 0, distinct, right[j]);
+                for (int i = 0; i < leftLength; i++)
+                    leftIds[i] = Math.max(-1, Arrays.binarySearch(alphabet, 0, distinct, left[i]));
+            }
+
+            if (lastRows.length < distinct)
+                lastRows = new int[Math.max(distinct, lastRows.length << 1)];
+            Arrays.fill(lastRows, 0, distinct, 0);
+        }
+    }
+
+    /**
+     * Word distance by letter substitutions, insertions, deletions, and swaps of adjacent letters.
+     * See Lowrance and Wagner, "An extension of the string-to-string correction problem" (1975).
+     * The matrix has a border of one extra row and column holding a distance larger than any real one,
+     * and lastRows holds, for each character of the right word, the last row of the left word it was in.
+     */
+    private static class DamerauLevenshteinDistanceFunction implements DistanceFunction<CharSequence> {
+
+        private final boolean isCaseSensitive;
+
+        public DamerauLevenshteinDistanceFunction(boolean isCaseSensitive) {
+            this.isCaseSensitive = isCaseSensitive;
+        }
+
+        @Override
+        public int distance(CharSequence left, CharSequence right) {
+            return distance(left, right, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Compute only the diagonal band of width maxDistance, and stop once a whole row exceeds it.
+         * Every edit, including a swap, changes the length by at most one, so cells off the band are beyond
+         * maxDistance. A swap jumps over rows, but the rows it skips are paid for as deletions,
+         * so no later cell is less than the lowest cell of an earlier row, as with Levenshtein.
+         */
+        @Override
+        public int distance(CharSequence left, CharSequence right, int maxDistance) {
+            int leftLength = left.length(), rightLength = right.length();
+            int lengthDifference = Math.abs(leftLength - rightLength);
+            if (lengthDifference > maxDistance)
+                return lengthDifference;
+            if (leftLength == 0)
+                return rightLength;
+            if (rightLength == 0)
+                return leftLength;
+
+            Scratch scratch = Scratch.LOCAL.get();
+            char[] a = scratch.left(left, isCaseSensitive), b = scratch.right(right, isCaseSensitive);
+            scratch.numberCharacters(a, leftLength, b, rightLength);
+            int[] leftIds = scratch.leftIds, rightIds = scratch.rightIds, lastRows = scratch.lastRows;
+
+            // No distance is more than the longer length, so a wider band is the whole matrix.
+            int band = Math.min(maxDistance, Math.max(leftLength, rightLength));
+            int outside = band + 1; // Stands in for every distance beyond the band.
+            int width = rightLength + 2, infinity = leftLength + rightLength;
+            // d[(i + 1) * width + j + 1] is row i, column j. Only the band and the borders are written,
+            // so the rest holds whatever was left in the scratch matrix, and is never read.
+            int[] d = scratch.matrix((leftLength + 2) * width);
+            d[0] = infinity;
+            for (int i = 0; i <= leftLength; i++) {
+                d[(i + 1) * width] = infinity;
+                d[(i + 1) * width + 1] = i;
+            }
+            for (int j = 0; j <= rightLength; j++) {
+                d[j + 1] = infinity;
+                d[width + j + 1] = j;
+            }
+
+            for (int i = 1; i <= leftLength; i++) {
+                int from = Math.max(1, i - band), to = Math.min(rightLength, i + band);
+                int row = (i + 1) * width, previousRow = i * width;
+                if (from > 1)
+                    d[row + from] = outside; // Column from - 1, read by the first cell of the band.
+                int rowMinimum = from == 1 ? i : outside;
+                int lastColumn = 0; // The last column in this row's band where the characters matched.
+                char leftChar = a[i - 1];
+                for (int j = from; j <= to; j++) {
+                    int swapRow = lastRows[rightIds[j - 1]], swapColumn = lastColumn;
+                    int cost = 1;
+                    if (leftChar == b[j - 1]) {
+                        cost = 0;
+                        lastColumn = j;
+                    }
+                    int cell = Math.min(d[previousRow + j] + cost, Math.min(d[row + j], d[previousRow + j + 1]) + 1);
+                    // Delete the characters between the two swapped ones in left, swap, then insert the ones in right.
+                    // A swap from a cell off the band, or from a match before this row's band, is beyond it.
+                    if (Math.abs(swapRow - swapColumn) <= band) {
+                        int swap = d[swapRow * width + swapColumn] + (i - swapRow - 1) + 1 + (j - swapColumn - 1);
+                        cell = Math.min(cell, swap);
+                    }
+                    cell = Math.min(cell, outside);
+                    d[row + j + 1] = cell;
+                    rowMinimum = Math.min(rowMinimum, cell);
+                }
+                if (to < rightLength) // The next row reads one cell past this row's band.
+                    d[row + to + 2] = outside;
+                if (leftIds[i - 1] >= 0)
+                    lastRows[leftIds[i - 1]] = i;
+
+                if (rowMinimum > band) // No later cell is lower than this row's lowest.
+                    return outside;
+            }
+
+            return d[(leftLength + 1) * width + rightLength + 1];
+        }
+    }
+
+    /**
+     * Word distance by letter substitutions, insertions, and deletions, each with its own cost.
+     */
+    private static class WeightedLevenshteinDistanceFunction implements DistanceFunction<CharSequence> {
+
+        private final int indelCost;
+        private final SubstitutionCost substitutionCost;
+
+        public WeightedLevenshteinDistanceFunction(int indelCost, SubstitutionCost substitutionCost) {
+            this.indelCost = indelCost;
+            this.substitutionCost = substitutionCost;
+        }
+
+        @Override
+        public int distance(CharSequence left, CharSequence right) {
+            return distance(left, right, Integer.MAX_VALUE);
+        }
+
+        // Stop once a whole row exceeds maxDistance, since every path to the end passes through each row.
+        @Override
+        public int distance(CharSequence left, CharSequence right, int maxDistance) {
+            int leftLength = left.length(), rightLength = right.length();
+            long lengthDifference = (long) Math.abs(leftLength - rightLength) * indelCost;
+            if (lengthDifference > maxDistance)
+                return (int) Math.min(lengthDifference, Integer.MAX_VALUE);
+
+            Scratch scratch = Scratch.LOCAL.get();
+            char[] a = scratch.left(left, true), b = scratch.right(right, true);
+            int[] rows = scratch.matrix(2 * (rightLength + 1));
+            int current = 0, next = rightLength + 1; // Offsets of the two rows in rows.
+            for (int j = 0; j <= rightLength; j++)
+                rows[j] = j * indelCost;
+
+            for (int i = 1; i <= leftLength; i++) {
+                rows[next] = i * indelCost;
+                int rowMinimum = rows[next];
+                char leftChar = a[i - 1];
+                for (int j = 1; j <= rightLength; j++) {
+                    int subDistance = rows[current + j - 1];
+                    if (leftChar != b[j - 1])
+                        subDistance += cost(leftChar, b[j - 1]);
+                    int cell = Math.min(Math.min(rows[next + j - 1], rows[current + j]) + indelCost, subDistance);
+                    rows[next + j] = cell;
+                    rowMinimum = Math.min(rowMinimum, cell);
+                }
+                if (rowMinimum > maxDistance)
+                    return rowMinimum;
+
+                int t = current;
+                current = next;
+                next = t;
             }
 
-            return currentRow[rightLength];
+            return rows[current + rightLength];
+        }
+
+        // A cost below 1 would break the row minimum cutoff, and make the distance no metric.
+        private int cost(char a, char b) {
+            int cost = substitutionCost.cost(a, b);
+            if (cost < 1)
+                throw new IllegalArgumentException("substitutionCost must be at least 1, but was " + cost
+                        + " for '" + a + "' and '" + b + "'.");
+            return cost;
         }
+    }
+
+    /**
+     * Word distance by letter substitutions, insertions, and deletions, using bit vectors.
+     * See Myers, "A fast bit-vector algorithm for approximate string matching based on dynamic programming" (1999),
+     * and Hyyro, "A bit-vector algorithm for computing Levenshtein and Damerau edit distances" (2003)
+     * for the blocks used with patterns longer than 64 characters.
+     */
+    private static class MyersLevenshteinDistanceFunction implements DistanceFunction<CharSequence> {
+
+        private final boolean isCaseSensitive;
 
+        public MyersLevenshteinDistanceFunction(boolean isCaseSensitive) {
+            this.isCaseSensitive = isCaseSensitive;
+        }
+
+        @Override
+        public int distance(CharSequence left, CharSequence right) {
+            return distance(left, right, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Building a pattern allocates a mask for every ASCII character, which is a lot for a single comparison,
+         * as when adding to a tree. So a pattern of one block sets its masks in the thread's scratch table
+         * instead, and clears them afterwards. Short patterns with other characters use the banded matrix.
+         */
+        @Override
+        public int distance(CharSequence left, CharSequence right, int maxDistance) {
+            // Use the shorter sequence as the pattern to need fewer blocks.
+            CharSequence pattern = left.length() < right.length() ? left : right, text = pattern == left ? right : left;
+            int length = pattern.length();
+            if (length > 64) // Enough work per comparison to pay for building the pattern.
+                return new MyersPattern(pattern, isCaseSensitive).distanceTo(text, maxDistance);
+            int lengthDifference = text.length() - length;
+            if (lengthDifference > maxDistance)
+                return lengthDifference;
+            if (length == 0)
+                return text.length();
+
+            Scratch scratch = Scratch.LOCAL.get();
+            long[] masks = scratch.myersMasks;
+            int set = 0;
+            try {
+                for (; set < length; set++) {
+                    char c = MyersPattern.fold(pattern.charAt(set), isCaseSensitive);
+                    if (c >= Scratch.ASCII_SIZE)
+                        break;
+                    masks[c] |= 1L << set;
+                }
+                if (set == length)
+                    return MyersPattern.distanceSingleBlock(masks, NO_CHARS, length, text, isCaseSensitive,
+                            maxDistance);
+            } finally {
+                for (int i = 0; i < set; i++)
+                    masks[MyersPattern.fold(pattern.charAt(i), isCaseSensitive)] = 0L;
+            }
+            return LevenshteinDistanceFunction.distance(scratch.left(text, isCaseSensitive), text.length(),
+                    scratch.right(pattern, isCaseSensitive), length, maxDistance, scratch);
+        }
+
+        @Override
+        public PreparedQuery<CharSequence> prepare(CharSequence query) {
+            return new MyersPattern(query, isCaseSensitive);
+        }
+    }
+
+    private static final char[] NO_CHARS = new char[0];
+
+    // The bitmasks of where each character appears in a pattern, one bit per pattern position.
+    private static class MyersPattern implements PreparedQuery<CharSequence> {
+        private static final int ASCII_SLOTS = 128;
+
+        private final boolean isCaseSensitive;
+        private final int length;
+        private final int blocks;
+        private final char[] otherChars; // Sorted distinct non-ASCII characters of the pattern.
+        private final long[] masks; // blocks masks per slot: ASCII, then otherChars, then an empty slot.
+        private final long[] verticalPositive, verticalNegative; // Reused column state for multiple blocks.
+
+        public MyersPattern(CharSequence pattern, boolean isCaseSensitive) {
+            this.isCaseSensitive = isCaseSensitive;
+            length = pattern.length();
+            blocks = Math.max(1, (length + 63) >>> 6);
+
+            char[] chars = new char[length];
+            int otherCount = 0;
+            for (int i = 0; i < length; i++) {
+                char c = fold(pattern.charAt(i), isCaseSensitive);
+                chars[i] = c;
+                if (c >= ASCII_SLOTS)
+                    otherCount++;
+            }
+            char[] others = new char[otherCount];
+            for (int i = 0, k = 0; i < length; i++) {
+                if (chars[i] >= ASCII_SLOTS)
+                    others[k++] = chars[i];
+            }
+            Arrays.sort(others);
+            int distinct = 0;
+            for (int i = 0; i < otherCount; i++) {
+                if (distinct == 0 || others[distinct - 1] != others[i])
+                    others[distinct++] = others[i];
+            }
+            otherChars = Arrays.copyOf(others, distinct);
+
+            masks = new long[(ASCII_SLOTS + distinct + 1) * blocks];
+            for (int i = 0; i < length; i++)
+                masks[slot(chars[i], otherChars) * blocks + (i >>> 6)] |= 1L << (i & 63);
+
+            verticalPositive = blocks > 1 ? new long[blocks] : null;
+            verticalNegative = blocks > 1 ? new long[blocks] : null;
+        }
+
+        static char fold(char c, boolean isCaseSensitive) {
+            return isCaseSensitive ? c : foldCase(c);
+        }
+
+        // The index of c's masks, or the empty slot if c is not in the pattern.
+        private static int slot(char c, char[] otherChars) {
+            if (c < ASCII_SLOTS)
+                return c;
+            int i = Arrays.binarySearch(otherChars, c);
+            return ASCII_SLOTS + (i >= 0 ? i : otherChars.length);
+        }
+
+        @Override
+        public int distanceTo(CharSequence text, int maxDistance) {
+            int textLength = text.length();
+            int lengthDifference = Math.abs(length - textLength);
+            if (lengthDifference > maxDistance)
+                return lengthDifference;
+            if (length == 0)
+                return textLength;
+            return blocks == 1 ? distanceSingleBlock(masks, otherChars, length, text, isCaseSensitive, maxDistance)
+                    : distanceMultipleBlocks(text, maxDistance);
+        }
+
+        // Masks holds one long per slot, for a pattern of 1 to 64 characters.
+        static int distanceSingleBlock(long[] masks, char[] otherChars, int length, CharSequence text,
+                                       boolean isCaseSensitive, int maxDistance) {
+            int textLength = text.length();
+            long lastBit = 1L << (length - 1);
+            long positive = -1L, negative = 0L; // Vertical deltas of +1 and -1 in the current column.
+            int score = length;
+
+            for (int j = 0; j < textLength; j++) {
+                long equal = masks[slot(fold(text.charAt(j), isCaseSensitive), otherChars)];
+                long xVertical = equal | negative;
+                long xHorizontal = (((equal & positive) + positive) ^ positive) | equal;
+                long horizontalPositive = negative | ~(xHorizontal | positive);
+                long horizontalNegative = positive & xHorizontal;
+                if ((horizontalPositive & lastBit) != 0)
+                    score++;
+                else if ((horizontalNegative & lastBit) != 0)
+                    score--;
+                horizontalPositive = (horizontalPositive << 1) | 1L; // The first row increases by one per column.
+                horizontalNegative <<= 1;
+                positive = horizontalNegative | ~(xVertical | horizontalPositive);
+                negative = horizontalPositive & xVertical;
+
+                // Each remaining column can lower the score by at most one.
+                int lowerBound = score - (textLength - 1 - j);
+                if (lowerBound > maxDistance)
+                    return lowerBound;
+            }
+            return score;
+        }
+
+        private int distanceMultipleBlocks(CharSequence text, int maxDistance) {
+            int textLength = text.length();
+            long lastBit = 1L << ((length - 1) & 63);
+            long[] positives = verticalPositive, negatives = verticalNegative;
+            Arrays.fill(positives, -1L);
+            Arrays.fill(negatives, 0L);
+            int score = length;
+
+            for (int j = 0; j < textLength; j++) {
+                int offset = slot(fold(text.charAt(j), isCaseSensitive), otherChars) * blocks;
+                int carry = 1; // Horizontal delta entering the top of the block; the first row increases by one.
+                for (int b = 0; b < blocks; b++) {
+                    long equal = masks[offset + b];
+                    long positive = positives[b], negative = negatives[b];
+                    long xVertical = equal | negative;
+                    if (carry < 0)
+                        equal |= 1L;
+                    long xHorizontal = (((equal & positive) + positive) ^ positive) | equal;
+                    long horizontalPositive = negative | ~(xHorizontal | positive);
+                    long horizontalNegative = positive & xHorizontal;
+                    if (b == blocks - 1) {
+                        if ((horizontalPositive & lastBit) != 0)
+                            score++;
+                        else if ((horizontalNegative & lastBit) != 0)
+                            score--;
+                    }
+                    int carryOut = horizontalPositive < 0 ? 1 : horizontalNegative < 0 ? -1 : 0;
+                    horizontalPositive <<= 1;
+                    horizontalNegative <<= 1;
+                    if (carry < 0)
+                        horizontalNegative |= 1L;
+                    else if (carry > 0)
+                        horizontalPositive |= 1L;
+                    positives[b] = horizontalNegative | ~(xVertical | horizontalPositive);
+                    negatives[b] = horizontalPositive & xVertical;
+                    carry = carryOut;
+                }
+
+                int lowerBound = score - (textLength - 1 - j);
+                if (lowerBound > maxDistance)
+                    return lowerBound;
+            }
+            return score;
+        }
     }
 }
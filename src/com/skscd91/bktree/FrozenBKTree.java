@@ -0,0 +1,266 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.*;
+
+import static com.skscd91.bktree.BKTree.addCapped;
+
+/**
+ * A read-only snapshot of a BKTree, with its nodes flattened into arrays in breadth first order.
+ * Breadth first order puts the children of each node next to each other, so a node is just an index:
+ * its item is items[i], the edge distance from its parent is edges[i], and its children are the nodes from
+ * firstChild[i] up to firstChild[i + 1], in ascending order of edge distance. Searches read these arrays
+ * in place, instead of following a Node and two arrays per node.
+ *
+ * Removed items still in the BKTree to guide searches to their children are kept the same way,
+ * but are never returned. Pivots set on the BKTree are kept too, as each subtree's range of pivot distances.
+ *
+ * A FrozenBKTree never changes, so it is safe to search from multiple threads without synchronization.
+ *
+ * @param <T> A type with a metric distance function, as in BKTree.
+ * @see BKTree#freeze()
+ */
+public class FrozenBKTree<T> extends AbstractSet<T> {
+
+    private final DistanceFunction<T> distanceFunction;
+    private final Object[] items;
+    private final int[] edges;
+    private final int[] firstChild; // One more than the number of nodes, so every node's children end at the next's.
+    private final boolean[] deleted; // Null if no node is deleted.
+    private final List<T> pivots;
+    private final int[] pivotRanges; // With k pivots, the lowest then the highest distances to each, 2k per node.
+    private final int length;
+
+    FrozenBKTree(BKTree<T> tree) {
+        distanceFunction = tree.distanceFunction();
+        pivots = tree.getPivots();
+        length = tree.size();
+
+        ArrayList<BKTree.Node<T>> nodes = new ArrayList<>();
+        if (tree.rootNode() != null)
+            nodes.add(tree.rootNode());
+        for (int i = 0; i < nodes.size(); i++) { // Breadth first, appending each node's children as it is reached.
+            BKTree.Node<T> node = nodes.get(i);
+            for (int j = 0; j < node.childCount; j++)
+                nodes.add(node.children[j]);
+        }
+
+        int count = nodes.size(), k = pivots.size();
+        items = new Object[count];
+        edges = new int[count];
+        firstChild = new int[count + 1];
+        pivotRanges = k == 0 ? null : new int[2 * k * count];
+        boolean[] deletedNodes = null;
+        int next = Math.min(1, count); // The index of the next node's first child.
+        for (int i = 0; i < count; i++) {
+            BKTree.Node<T> node = nodes.get(i);
+            items[i] = node.item;
+            firstChild[i] = next;
+            for (int j = 0; j < node.childCount; j++)
+                edges[next++] = node.distances[j];
+            if (node.deleted) {
+                if (deletedNodes == null)
+                    deletedNodes = new boolean[count];
+                deletedNodes[i] = true;
+            }
+            if (pivotRanges != null) { // Without children, a node's range is its own distances.
+                boolean hasRanges = node.pivotDistances.length > k;
+                System.arraycopy(node.pivotDistances, hasRanges ? k : 0, pivotRanges, 2 * k * i, k);
+                System.arraycopy(node.pivotDistances, hasRanges ? 2 * k : 0, pivotRanges, 2 * k * i + k, k);
+            }
+        }
+        firstChild[count] = next;
+        deleted = deletedNodes;
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> search(T t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (t == null || items.length == 0)
+            return;
+
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        int[] queryPivots = pivotDistances(t);
+        int[] nextNodes = new int[16]; // Depth first stack of nodes, starting from the root.
+        int top = 1;
+
+        while (top > 0) {
+            int node = nextNodes[--top];
+            int from = firstChild[node], to = firstChild[node + 1];
+
+            // Beyond radius past the farthest child, neither the node nor its children can match.
+            int maxDistance = addCapped(from == to ? 0 : edges[to - 1], radius);
+            T item = item(node);
+            int distance = query.distanceTo(item, maxDistance);
+            if (distance > maxDistance)
+                continue;
+            if (distance <= radius && (deleted == null || !deleted[node]))
+                consumer.accept(item, distance);
+
+            int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+            for (int child = ceilingIndex(from, to, lowBound); child < to && edges[child] <= highBound; child++) {
+                if (queryPivots != null && !mayHoldMatch(child, queryPivots, radius))
+                    continue;
+                if (top == nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, top << 1);
+                nextNodes[top++] = child;
+            }
+        }
+    }
+
+    // The first node from from to to with an edge distance of at least distance, or to if there is none.
+    private int ceilingIndex(int from, int to, int distance) {
+        int low = from, high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (edges[mid] < distance)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    // If an item within radius of a query could be under node, given the query's distances to the pivots.
+    private boolean mayHoldMatch(int node, int[] queryPivots, int radius) {
+        int k = queryPivots.length, offset = 2 * k * node;
+        for (int i = 0; i < k; i++) {
+            if (queryPivots[i] - radius > pivotRanges[offset + k + i] || queryPivots[i] + radius < pivotRanges[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    // The distances from an item to each pivot, or null if the tree has no pivots.
+    private int[] pivotDistances(T item) {
+        if (pivotRanges == null)
+            return null;
+        int[] distances = new int[pivots.size()];
+        for (int i = 0; i < distances.length; i++)
+            distances[i] = distanceFunction.distance(pivots.get(i), item);
+        return distances;
+    }
+
+    /**
+     * Check if the given object is in the tree, by following the one path it would have been added along.
+     * @param o An object that is potentially in the tree.
+     * @return If the tree contains object o.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || items.length == 0)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            T t = (T) o;
+            int node = 0;
+            while (true) {
+                int distance = distanceFunction.distance(item(node), t);
+                if (distance == 0 && t.equals(items[node]))
+                    return deleted == null || !deleted[node];
+                int child = ceilingIndex(firstChild[node], firstChild[node + 1], distance);
+                if (child == firstChild[node + 1] || edges[child] != distance)
+                    return false;
+                node = child;
+            }
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    /**
+     * Iterate though the tree in breadth first order, the same order as BKTree.
+     * @return An iterator for the tree, which does not support remove.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int next = skipDeleted(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < items.length;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                T item = item(next);
+                next = skipDeleted(next + 1);
+                return item;
+            }
+
+            private int skipDeleted(int node) {
+                while (deleted != null && node < items.length && deleted[node])
+                    node++;
+                return node;
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * @return The pivots of the tree that was frozen, which may be empty.
+     */
+    public List<T> getPivots() {
+        return pivots;
+    }
+
+    // The number of nodes, including deleted ones. Nodes are numbered in breadth first order, from the root at 0.
+    int nodeCount() {
+        return items.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    T item(int node) {
+        return (T) items[node];
+    }
+
+    // The edge distance from a node's parent, or 0 for the root.
+    int edge(int node) {
+        return edges[node];
+    }
+
+    // The first child of a node. Its children run up to the first child of the next node.
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    boolean isDeleted(int node) {
+        return deleted != null && deleted[node];
+    }
+}
@@ -0,0 +1,41 @@
+package com.skscd91.bktree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts items to and from bytes, for trees stored in files.
+ *
+ * @see MappedBKTree
+ */
+public interface ItemCodec<T> {
+
+    /**
+     * @param item A non-null item.
+     * @return The bytes representing the item.
+     */
+    byte[] encode(T item);
+
+    /**
+     * Read an item from a buffer without changing the buffer's position or limit,
+     * since the buffer may be read by multiple threads at once.
+     * @param buffer The buffer holding the item.
+     * @param offset The index of the item's first byte.
+     * @param length The number of bytes returned by encode for the item.
+     * @return An item equal to the one encoded.
+     */
+    T decode(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Read an item to compare it during a search, where it is only needed until the next item is read.
+     * A codec may decode into the reuse item instead of creating a new one, so the item returned must not be kept.
+     * The default decodes a new item each time.
+     * @param buffer The buffer holding the item.
+     * @param offset The index of the item's first byte.
+     * @param length The number of bytes returned by encode for the item.
+     * @param reuse The item returned by the previous call in the same search, or null for the first call.
+     * @return An item at the same distance from any other item as the one encoded.
+     */
+    default T decodeReusing(ByteBuffer buffer, int offset, int length, T reuse) {
+        return decode(buffer, offset, length);
+    }
+}
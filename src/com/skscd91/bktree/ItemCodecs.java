@@ -0,0 +1,132 @@
+package com.skscd91.bktree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Various item codecs for use with the MappedBKTree.
+ */
+public final class ItemCodecs {
+
+    private ItemCodecs() {}
+
+    /**
+     * @return A codec storing CharSequence objects as UTF-8, and reading them back as Strings.
+     *         Searches decode the items they visit into one reused buffer of characters instead.
+     */
+    public static ItemCodec<CharSequence> utf8() {
+        return Utf8Codec.INSTANCE;
+    }
+
+    private static class Utf8Codec implements ItemCodec<CharSequence> {
+        private static final Utf8Codec INSTANCE = new Utf8Codec();
+
+        @Override
+        public byte[] encode(CharSequence item) {
+            return item.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CharSequence decode(ByteBuffer buffer, int offset, int length) {
+            if (buffer.hasArray())
+                return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate(); // Leave the shared buffer's position alone.
+            view.position(offset);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CharSequence decodeReusing(ByteBuffer buffer, int offset, int length, CharSequence reuse) {
+            Utf8View view = reuse instanceof Utf8View ? (Utf8View) reuse : new Utf8View();
+            if (!view.decode(buffer, offset, length))
+                view.set(decode(buffer, offset, length)); // Malformed bytes are replaced as String does.
+            return view;
+        }
+    }
+
+    // The characters of the last item decoded into it. Never more characters than bytes, so it grows by length.
+    private static final class Utf8View implements CharSequence {
+        private static final int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000}; // By continuation bytes.
+
+        private char[] chars = new char[32];
+        private int length;
+
+        // Decode length bytes of well-formed UTF-8 at offset, or return false if they are malformed.
+        boolean decode(ByteBuffer buffer, int offset, int length) {
+            if (chars.length < length)
+                chars = new char[Math.max(length, chars.length << 1)];
+            int n = 0;
+            for (int i = offset, end = offset + length; i < end; ) {
+                int b = buffer.get(i++);
+                if (b >= 0) {
+                    chars[n++] = (char) b;
+                    continue;
+                }
+                int extra, codePoint;
+                if ((b & 0xE0) == 0xC0) {
+                    extra = 1;
+                    codePoint = b & 0x1F;
+                } else if ((b & 0xF0) == 0xE0) {
+                    extra = 2;
+                    codePoint = b & 0x0F;
+                } else if ((b & 0xF8) == 0xF0) {
+                    extra = 3;
+                    codePoint = b & 0x07;
+                } else {
+                    return false;
+                }
+                if (end - i < extra)
+                    return false;
+                for (int k = 0; k < extra; k++) {
+                    int c = buffer.get(i++);
+                    if ((c & 0xC0) != 0x80)
+                        return false;
+                    codePoint = codePoint << 6 | c & 0x3F;
+                }
+                if (codePoint < MIN_CODE_POINT[extra] || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+                    return false;
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[n++] = Character.highSurrogate(codePoint);
+                    chars[n++] = Character.lowSurrogate(codePoint);
+                } else {
+                    chars[n++] = (char) codePoint;
+                }
+            }
+            this.length = n;
+            return true;
+        }
+
+        void set(CharSequence s) {
+            if (chars.length < s.length())
+                chars = new char[s.length()];
+            for (int i = 0; i < s.length(); i++)
+                chars[i] = s.charAt(i);
+            length = s.length();
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.*;
+
+/**
+ * A BKTree of fingerprints, such as perceptual image hashes, compared by Hamming distance:
+ * the number of bits that differ. Each fingerprint is a fixed number of longs, its width,
+ * and all of them are stored back to back in one long array, with the tree structure in int arrays,
+ * so nothing is boxed and a 64-bit fingerprint costs 20 bytes.
+ *
+ * Fingerprints can be given as a long, for a width of 1, as an array of width longs, or as an array of
+ * 8 * width bytes, which is read as big-endian longs. As with BKTree, adding a fingerprint already in the tree
+ * does nothing, and search results are sorted by distance. The tree only grows: fingerprints cannot be removed.
+ *
+ * @see DistanceFunctions#bitHammingDistance()
+ */
+public class LongBKTree {
+
+    private final int width;
+    private final NodeLinks links;
+    private long[] items; // Node n's fingerprint is items[n * width] to items[(n + 1) * width].
+
+    /**
+     * Make a tree of 64-bit fingerprints.
+     */
+    public LongBKTree() {
+        this(1);
+    }
+
+    /**
+     * @param width The number of longs in each fingerprint, at least 1.
+     */
+    public LongBKTree(int width) {
+        if (width < 1)
+            throw new IllegalArgumentException("width must be at least 1.");
+
+        this.width = width;
+        links = new NodeLinks(16);
+        items = new long[16 * width];
+    }
+
+    /**
+     * @return The number of longs in each fingerprint.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Add a 64-bit fingerprint to a tree with a width of 1.
+     * @param item The fingerprint.
+     * @return If the fingerprint was not already in the tree.
+     */
+    public boolean add(long item) {
+        return add(single(item));
+    }
+
+    /**
+     * Add a fingerprint to the tree.
+     * @param item The fingerprint, of width longs.
+     * @return If the fingerprint was not already in the tree.
+     */
+    public boolean add(long[] item) {
+        checkWidth(item);
+        if (links.size() == 0) {
+            append(item);
+            return true;
+        }
+
+        int parent = 0, distance;
+        while ((distance = distance(parent, item)) != 0) { // A distance of 0 means the same bits.
+            int child = links.child(parent, distance);
+            if (child == NodeLinks.NONE) {
+                links.link(parent, distance, append(item));
+                return true;
+            }
+            parent = child;
+        }
+        return false;
+    }
+
+    /**
+     * Add a fingerprint to the tree.
+     * @param item The fingerprint, of 8 * width bytes.
+     * @return If the fingerprint was not already in the tree.
+     */
+    public boolean add(byte[] item) {
+        return add(pack(item));
+    }
+
+    // Copy item to the end of the items, as a new node, and return the node.
+    private int append(long[] item) {
+        int node = links.add();
+        if ((node + 1) * width > items.length)
+            items = Arrays.copyOf(items, Math.max(items.length + (items.length >> 1), (node + 1) * width));
+        System.arraycopy(item, 0, items, node * width, width);
+        return node;
+    }
+
+    /**
+     * @param item A 64-bit fingerprint, for a tree with a width of 1.
+     * @return If the tree contains the fingerprint.
+     */
+    public boolean contains(long item) {
+        return contains(single(item));
+    }
+
+    /**
+     * @param item A fingerprint of width longs.
+     * @return If the tree contains the fingerprint.
+     */
+    public boolean contains(long[] item) {
+        checkWidth(item);
+        for (int node = links.size() == 0 ? NodeLinks.NONE : 0; node != NodeLinks.NONE; ) {
+            int distance = distance(node, item);
+            if (distance == 0)
+                return true;
+            node = links.child(node, distance);
+        }
+        return false;
+    }
+
+    /**
+     * @param item A fingerprint of 8 * width bytes.
+     * @return If the tree contains the fingerprint.
+     */
+    public boolean contains(byte[] item) {
+        return contains(pack(item));
+    }
+
+    /**
+     * Search for 64-bit fingerprints within a maximum Hamming distance of item, in a tree with a width of 1.
+     * @param item The fingerprint to find near duplicates of.
+     * @param radius The maximum number of differing bits.
+     * @return An immutable list of fingerprints, sorted by distance.
+     */
+    public List<SearchResult<Long>> search(long item, int radius) {
+        ArrayList<SearchResult<Long>> searchResults = new ArrayList<>();
+        search(item, radius, (found, distance) -> searchResults.add(new SearchResult<>(distance, found)));
+        return sorted(searchResults);
+    }
+
+    /**
+     * Search for 64-bit fingerprints within a maximum Hamming distance of item, in a tree with a width of 1,
+     * passing each one to a consumer as it is found. Nothing is boxed or allocated per visited node.
+     * @param item The fingerprint to find near duplicates of.
+     * @param radius The maximum number of differing bits.
+     * @param consumer Receives each matching fingerprint and its distance from item, in no particular order.
+     */
+    public void search(long item, int radius, LongResultConsumer consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        search(single(item), radius, (node, distance) -> consumer.accept(items[node], distance));
+    }
+
+    /**
+     * Search for fingerprints within a maximum Hamming distance of item.
+     * @param item The fingerprint, of width longs, to find near duplicates of.
+     * @param radius The maximum number of differing bits.
+     * @return An immutable list of copies of the fingerprints, sorted by distance.
+     */
+    public List<SearchResult<long[]>> search(long[] item, int radius) {
+        ArrayList<SearchResult<long[]>> searchResults = new ArrayList<>();
+        search(item, radius, (node, distance) -> searchResults.add(new SearchResult<>(distance, copy(node))));
+        return sorted(searchResults);
+    }
+
+    /**
+     * Search for fingerprints within a maximum Hamming distance of item.
+     * @param item The fingerprint, of 8 * width bytes, to find near duplicates of.
+     * @param radius The maximum number of differing bits.
+     * @return An immutable list of the fingerprints as bytes, sorted by distance.
+     */
+    public List<SearchResult<byte[]>> search(byte[] item, int radius) {
+        ArrayList<SearchResult<byte[]>> searchResults = new ArrayList<>();
+        search(pack(item), radius, (node, distance) -> searchResults.add(new SearchResult<>(distance, unpack(node))));
+        return sorted(searchResults);
+    }
+
+    // Pass every node within radius of item to the consumer.
+    private void search(long[] item, int radius, NodeConsumer consumer) {
+        checkWidth(item);
+        if (links.size() == 0)
+            return;
+
+        int[] nextNodes = new int[16]; // Depth first stack of nodes, starting from the root.
+        int top = 1;
+        while (top > 0) {
+            int node = nextNodes[--top];
+            int distance = distance(node, item);
+            if (distance <= radius)
+                consumer.accept(node, distance);
+
+            // Children are in descending order of distance.
+            int lowBound = distance - radius, highBound = BKTree.addCapped(distance, radius);
+            for (int child = links.firstChild(node); child != NodeLinks.NONE && links.edge(child) >= lowBound;
+                 child = links.nextSibling(child)) {
+                if (links.edge(child) > highBound)
+                    continue;
+                if (top == nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, top << 1);
+                nextNodes[top++] = child;
+            }
+        }
+    }
+
+    // The number of bits that differ between a node's fingerprint and item.
+    private int distance(int node, long[] item) {
+        if (width == 1)
+            return Long.bitCount(items[node] ^ item[0]);
+        int offset = node * width, distance = 0;
+        for (int i = 0; i < width; i++)
+            distance += Long.bitCount(items[offset + i] ^ item[i]);
+        return distance;
+    }
+
+    /**
+     * @return The number of fingerprints in the tree.
+     */
+    public int size() {
+        return links.size();
+    }
+
+    /**
+     * @return If the tree has no fingerprints.
+     */
+    public boolean isEmpty() {
+        return links.size() == 0;
+    }
+
+    private long[] single(long item) {
+        if (width != 1)
+            throw new IllegalArgumentException("A single long is only a fingerprint in a tree with a width of 1.");
+        return new long[]{item};
+    }
+
+    private void checkWidth(long[] item) {
+        if (item.length != width)
+            throw new IllegalArgumentException("Fingerprint has " + item.length + " longs instead of " + width + ".");
+    }
+
+    private long[] copy(int node) {
+        return Arrays.copyOfRange(items, node * width, (node + 1) * width);
+    }
+
+    // Read 8 * width bytes as big-endian longs.
+    private long[] pack(byte[] bytes) {
+        if (bytes.length != 8 * width)
+            throw new IllegalArgumentException("Fingerprint has " + bytes.length + " bytes instead of " + 8 * width + ".");
+        long[] packed = new long[width];
+        for (int i = 0; i < bytes.length; i++)
+            packed[i >>> 3] = (packed[i >>> 3] << 8) | (bytes[i] & 0xFF);
+        return packed;
+    }
+
+    private byte[] unpack(int node) {
+        byte[] bytes = new byte[8 * width];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (items[node * width + (i >>> 3)] >>> (56 - 8 * (i & 7)));
+        return bytes;
+    }
+
+    private static <R> List<SearchResult<R>> sorted(ArrayList<SearchResult<R>> searchResults) {
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    // Receives each node found by a search.
+    private interface NodeConsumer {
+        void accept(int node, int distance);
+    }
+}
@@ -0,0 +1,8 @@
+package com.skscd91.bktree;
+
+/**
+ * Receives each item found by a search of a LongBKTree, along with its distance from the query.
+ */
+public interface LongResultConsumer {
+    void accept(long item, int distance);
+}
@@ -0,0 +1,392 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.skscd91.bktree.BKTree.addCapped;
+
+/**
+ * A read-only BKTree stored in a file, and searched directly in a memory-mapped buffer.
+ * Opening a tree only maps the file, so it is near instant, and the tree lives off-heap in the page cache,
+ * where it is shared by every process that maps the same file.
+ * Nodes are read in place as they are visited; only the items of visited nodes are decoded,
+ * into one reused item when the codec supports it, and only matching items are decoded as new items.
+ *
+ * The file starts with a header of four ints: a magic number, the format version, the number of items,
+ * and the offset of the root node, or -1 if the tree is empty. Each node is then stored as
+ * the length of its item, the item's bytes, the number of children, the children's edge distances in
+ * ascending order, and the offsets of the children. Children are written before their parents.
+ * A node removed from the tree, but still needed to reach its children, stores the complement of its
+ * item's length instead, which is negative. Version 1 files, which have no removed nodes, can still be opened.
+ * All ints are big-endian, and offsets limit files to 2 GB.
+ *
+ * A MappedBKTree is safe to search from multiple threads.
+ *
+ * @param <T> A type with a metric distance function, as in BKTree.
+ */
+public class MappedBKTree<T> extends AbstractSet<T> {
+
+    private static final int MAGIC = 0x424B5452; // "BKTR"
+    private static final int VERSION = 2;
+    private static final int MIN_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final ItemCodec<T> codec;
+    private final DistanceFunction<T> distanceFunction;
+    private final int length;
+    private final int rootOffset;
+
+    private MappedBKTree(ByteBuffer buffer, ItemCodec<T> codec, DistanceFunction<T> distanceFunction) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a BKTree file.");
+        if (buffer.getInt(4) < MIN_VERSION || buffer.getInt(4) > VERSION)
+            throw new IOException("Unsupported BKTree file version " + buffer.getInt(4) + ".");
+        this.buffer = buffer;
+        this.codec = codec;
+        this.distanceFunction = distanceFunction;
+        this.length = buffer.getInt(8);
+        this.rootOffset = buffer.getInt(12);
+    }
+
+    /**
+     * Write a tree to a file, replacing the file if it exists.
+     * @param tree The tree to write.
+     * @param codec Converts the tree's items to bytes.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written, or would be larger than 2 GB.
+     */
+    public static <T> void write(BKTree<? extends T> tree, ItemCodec<T> codec, Path path) throws IOException {
+        if (codec == null)
+            throw new NullPointerException("codec cannot be null.");
+        write(path, tree.size(), out -> tree.rootNode() == null ? -1 : writeNodes(tree.rootNode(), codec, out));
+    }
+
+    /**
+     * Write a frozen tree to a file, replacing the file if it exists. Since a frozen tree cannot change,
+     * it can be written from another thread while the tree it was taken from goes on being modified.
+     * @param tree The tree to write.
+     * @param codec Converts the tree's items to bytes.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written, or would be larger than 2 GB.
+     */
+    public static <T> void write(FrozenBKTree<? extends T> tree, ItemCodec<T> codec, Path path) throws IOException {
+        if (codec == null)
+            throw new NullPointerException("codec cannot be null.");
+        write(path, tree.size(), out -> writeNodes(tree, codec, out));
+    }
+
+    // Write the header and the nodes written by body, which returns the root's offset.
+    private static void write(Path path, int size, NodeWriter body) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_SIZE]); // Written once the root's offset is known.
+            int rootOffset = body.write(out);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(rootOffset);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+        }
+    }
+
+    // Write every node of a frozen tree, and return the root's offset, or -1 if the tree is empty.
+    // Nodes are numbered in breadth first order, so going backwards writes every child before its parent.
+    private static <T> int writeNodes(FrozenBKTree<? extends T> tree, ItemCodec<T> codec, DataOutputStream out)
+            throws IOException {
+        int count = tree.nodeCount();
+        int[] offsets = new int[count];
+        for (int node = count - 1; node >= 0; node--) {
+            offsets[node] = out.size();
+            if (offsets[node] < 0)
+                throw new IOException("BKTree file would be larger than 2 GB.");
+            byte[] item = codec.encode(tree.item(node));
+            out.writeInt(tree.isDeleted(node) ? ~item.length : item.length);
+            out.write(item);
+            int from = tree.firstChild(node), to = tree.firstChild(node + 1);
+            out.writeInt(to - from);
+            for (int child = from; child < to; child++)
+                out.writeInt(tree.edge(child));
+            for (int child = from; child < to; child++)
+                out.writeInt(offsets[child]);
+        }
+        return count == 0 ? -1 : offsets[0];
+    }
+
+    // Write every node under root, children before parents, and return the root's offset.
+    private static <T> int writeNodes(BKTree.Node<? extends T> root, ItemCodec<T> codec, DataOutputStream out)
+            throws IOException {
+        ArrayDeque<WriteFrame<T>> frames = new ArrayDeque<>();
+        frames.push(new WriteFrame<>(root));
+        int offset = -1;
+        while (!frames.isEmpty()) {
+            WriteFrame<T> frame = frames.peek();
+            if (frame.next < frame.node.childCount) { // Write the next child's subtree first.
+                frames.push(new WriteFrame<>(frame.node.children[frame.next]));
+                continue;
+            }
+
+            offset = out.size();
+            if (offset < 0)
+                throw new IOException("BKTree file would be larger than 2 GB.");
+            byte[] item = codec.encode(frame.node.item);
+            out.writeInt(frame.node.deleted ? ~item.length : item.length);
+            out.write(item);
+            out.writeInt(frame.node.childCount);
+            for (int i = 0; i < frame.node.childCount; i++)
+                out.writeInt(frame.node.distances[i]);
+            for (int i = 0; i < frame.node.childCount; i++)
+                out.writeInt(frame.childOffsets[i]);
+
+            frames.pop();
+            WriteFrame<T> parent = frames.peek();
+            if (parent != null)
+                parent.childOffsets[parent.next++] = offset;
+        }
+        return offset;
+    }
+
+    /**
+     * Map a tree written by write. The file is not read until the tree is searched.
+     * @param path The file to map.
+     * @param codec Converts bytes back to the tree's items.
+     * @param distanceFunction The same distance function as the tree that was written.
+     * @return A read-only tree.
+     * @throws IOException If the file cannot be mapped, or is not a tree file.
+     */
+    public static <T> MappedBKTree<T> open(Path path, ItemCodec<T> codec, DistanceFunction<T> distanceFunction)
+            throws IOException {
+        if (codec == null)
+            throw new NullPointerException("codec cannot be null.");
+        if (distanceFunction == null)
+            throw new NullPointerException("distanceFunction cannot be null.");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("BKTree file is larger than 2 GB.");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedBKTree<>(buffer, codec, distanceFunction);
+        }
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> search(T t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (t == null || rootOffset < 0)
+            return;
+
+        PreparedQuery<T> query = distanceFunction.prepare(t);
+        int[] nextNodes = new int[16]; // Depth first stack of node offsets.
+        nextNodes[0] = rootOffset;
+        int top = 1;
+        T item = null; // Each visited item, decoded into the last one when the codec can.
+
+        while (top > 0) {
+            int offset = nextNodes[--top];
+            int itemHeader = buffer.getInt(offset);
+            int itemLength = itemLength(itemHeader);
+            int childCount = buffer.getInt(offset + 4 + itemLength);
+            int distancesOffset = offset + 8 + itemLength, childrenOffset = distancesOffset + 4 * childCount;
+
+            int maxChildDistance = childCount == 0 ? 0 : buffer.getInt(childrenOffset - 4);
+            int maxDistance = addCapped(maxChildDistance, radius);
+            item = codec.decodeReusing(buffer, offset + 4, itemLength, item);
+            int distance = query.distanceTo(item, maxDistance);
+            if (distance > maxDistance)
+                continue;
+            if (distance <= radius && itemHeader >= 0) // Decoded again, since the consumer may keep it.
+                consumer.accept(codec.decode(buffer, offset + 4, itemLength), distance);
+
+            int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+            for (int i = ceilingIndex(distancesOffset, childCount, lowBound);
+                 i < childCount && buffer.getInt(distancesOffset + 4 * i) <= highBound; i++) {
+                if (top == nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, top << 1);
+                nextNodes[top++] = buffer.getInt(childrenOffset + 4 * i);
+            }
+        }
+    }
+
+    // The length of a node's item, from the int stored before it, which is negative if the node was removed.
+    private static int itemLength(int itemHeader) {
+        return itemHeader < 0 ? ~itemHeader : itemHeader;
+    }
+
+    // Index of the first of count sorted distances at distancesOffset that is at least distance.
+    private int ceilingIndex(int distancesOffset, int count, int distance) {
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(distancesOffset + 4 * mid) < distance)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Read the whole tree into a BKTree, with the same shape, so it can be modified. Every item is decoded,
+     * but no distances are computed, so this is much faster than adding the items to a new tree.
+     * @return A new tree with the same items, including the removed ones still needed to reach their children.
+     */
+    public BKTree<T> toBKTree() {
+        if (rootOffset < 0)
+            return new BKTree<>(distanceFunction);
+
+        int deletedCount = 0;
+        ArrayDeque<BKTree.Node<T>> nodes = new ArrayDeque<>(); // Nodes read, whose children are not yet read.
+        ArrayDeque<Integer> offsets = new ArrayDeque<>();
+        BKTree.Node<T> root = readNode(rootOffset);
+        nodes.push(root);
+        offsets.push(rootOffset);
+        while (!nodes.isEmpty()) {
+            BKTree.Node<T> node = nodes.pop();
+            int offset = offsets.pop();
+            if (node.deleted)
+                deletedCount++;
+            int itemLength = itemLength(buffer.getInt(offset));
+            int childCount = buffer.getInt(offset + 4 + itemLength);
+            int distancesOffset = offset + 8 + itemLength, childrenOffset = distancesOffset + 4 * childCount;
+            for (int i = 0; i < childCount; i++) { // In ascending order of distance, so each goes at the end.
+                int childOffset = buffer.getInt(childrenOffset + 4 * i);
+                BKTree.Node<T> child = readNode(childOffset);
+                node.putChild(buffer.getInt(distancesOffset + 4 * i), child);
+                nodes.push(child);
+                offsets.push(childOffset);
+            }
+        }
+        return BKTree.fromNodes(distanceFunction, root, length, deletedCount);
+    }
+
+    // Decode the item of the node at offset into a node without children.
+    private BKTree.Node<T> readNode(int offset) {
+        int itemHeader = buffer.getInt(offset);
+        BKTree.Node<T> node = new BKTree.Node<>(codec.decode(buffer, offset + 4, itemLength(itemHeader)));
+        node.deleted = itemHeader < 0;
+        return node;
+    }
+
+    /**
+     * Check if the given object is in the tree.
+     * @param o An object that is potentially in the tree.
+     * @return If the tree contains object o.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || rootOffset < 0)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            List<SearchResult<T>> searchList = search((T) o, 0); // Find objects exactly matching o.
+            for (SearchResult<T> result : searchList) {
+                if (result.getItem().equals(o))
+                    return true;
+            }
+            return false;
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    /**
+     * Iterate though the tree in depth first order, decoding each item as it is reached.
+     * @return An iterator for the tree, which does not support remove.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int[] nextNodes = rootOffset < 0 ? new int[0] : new int[]{rootOffset};
+            private int top = nextNodes.length;
+
+            @Override
+            public boolean hasNext() {
+                // Pass over removed nodes, but not their children.
+                while (top > 0 && buffer.getInt(nextNodes[top - 1]) < 0)
+                    addChildren(nextNodes[--top]);
+                return top > 0;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int offset = nextNodes[--top];
+                addChildren(offset);
+                return codec.decode(buffer, offset + 4, buffer.getInt(offset));
+            }
+
+            private void addChildren(int offset) {
+                int itemLength = itemLength(buffer.getInt(offset));
+                int childCount = buffer.getInt(offset + 4 + itemLength);
+                int childrenOffset = offset + 8 + itemLength + 4 * childCount;
+                if (top + childCount > nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, Math.max(nextNodes.length << 1, top + childCount));
+                for (int i = 0; i < childCount; i++)
+                    nextNodes[top++] = buffer.getInt(childrenOffset + 4 * i);
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    @Override
+    public int size() {
+        return length;
+    }
+
+    // Writes the nodes of a tree after the header, and returns the root's offset.
+    private interface NodeWriter {
+        int write(DataOutputStream out) throws IOException;
+    }
+
+    // A node being written, with the offsets of the children written so far.
+    private static final class WriteFrame<T> {
+        private final BKTree.Node<? extends T> node;
+        private final int[] childOffsets;
+        private int next;
+
+        WriteFrame(BKTree.Node<? extends T> node) {
+            this.node = node;
+            this.childOffsets = new int[node.childCount];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.skscd91.bktree;
+
+import java.util.Arrays;
+
+/**
+ * The structure of a tree whose nodes are numbered from 0, kept in primitive arrays instead of node objects.
+ * Each node has a linked list of children, ordered by descending edge distance,
+ * so the first child is the one with the largest distance.
+ */
+final class NodeLinks {
+
+    static final int NONE = -1;
+
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] edge; // The distance from each node to its parent.
+    private int size;
+
+    NodeLinks(int capacity) {
+        capacity = Math.max(capacity, 16);
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        edge = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Add a node without a parent, and return its number.
+    int add() {
+        if (size == firstChild.length) {
+            int capacity = size + (size >> 1);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            edge = Arrays.copyOf(edge, capacity);
+        }
+        firstChild[size] = NONE;
+        nextSibling[size] = NONE;
+        edge[size] = 0;
+        return size++;
+    }
+
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    int edge(int node) {
+        return edge[node];
+    }
+
+    // The largest edge distance of any child of node, or 0 if it has no children.
+    int maxChildEdge(int node) {
+        int child = firstChild[node];
+        return child == NONE ? 0 : edge[child];
+    }
+
+    // The child of node at distance, or NONE.
+    int child(int node, int distance) {
+        int child = firstChild[node];
+        while (child != NONE && edge[child] > distance)
+            child = nextSibling[child];
+        return child != NONE && edge[child] == distance ? child : NONE;
+    }
+
+    // Make child the child of parent at distance, which must not already have a child.
+    void link(int parent, int distance, int child) {
+        edge[child] = distance;
+        int previous = NONE, next = firstChild[parent];
+        while (next != NONE && edge[next] > distance) {
+            previous = next;
+            next = nextSibling[next];
+        }
+        nextSibling[child] = next;
+        if (previous == NONE)
+            firstChild[parent] = child;
+        else
+            nextSibling[previous] = child;
+    }
+}
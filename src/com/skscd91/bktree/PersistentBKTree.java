@@ -0,0 +1,461 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * A BKTree kept in a directory, as a snapshot plus a log of every change made since the snapshot.
+ * Opening the tree reads the snapshot and replays the logs on top of it, and every add, remove and clear
+ * that changes the tree is appended to the current log. Compaction writes the tree as a new snapshot
+ * and deletes the logs it covers, so that reopening stays fast as changes build up.
+ *
+ * The snapshot is a file in the format of MappedBKTree, so it is loaded without computing any distances.
+ * Each log record is the length of its item, an operation, the item's bytes from the codec, and a CRC32
+ * of the operation and the bytes. Records are buffered, and forced to disk every syncEvery records,
+ * or on sync and close. A crash can lose the records not yet forced, but never leaves a log unreadable:
+ * replay stops at the first torn or corrupt record, and appending starts again from there.
+ *
+ * Replaying a log only adds, removes and clears items, so replaying a record twice gives the same set.
+ * A crash during compaction, after the new snapshot is in place but before the logs it covers are deleted,
+ * only replays those logs again.
+ *
+ * Like BKTree, a PersistentBKTree is not safe to use from multiple threads, although compaction can run
+ * in the background while the tree goes on being changed.
+ *
+ * @param <T> A type with a metric distance function, as in BKTree.
+ * @see MappedBKTree
+ */
+public class PersistentBKTree<T> extends AbstractSet<T> implements Closeable {
+
+    private static final String SNAPSHOT = "snapshot.bkt";
+    private static final String SNAPSHOT_TEMP = "snapshot.tmp";
+    private static final String LOG_PREFIX = "log-";
+    private static final String LOG_SUFFIX = ".wal";
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final int RECORD_OVERHEAD = 9; // The item's length, the operation, and the CRC32.
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] NO_ITEM = new byte[0];
+
+    private final Path directory;
+    private final ItemCodec<T> codec;
+    private final BKTree<T> tree;
+    private final int syncEvery;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // Records not yet written to the log.
+    private final CRC32 crc = new CRC32();
+    private FileChannel log;
+    private long logNumber;
+    private int unsynced; // Records appended since the log was last forced.
+    private CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+    private boolean closed;
+
+    private PersistentBKTree(Path directory, ItemCodec<T> codec, BKTree<T> tree, int syncEvery,
+                             FileChannel log, long logNumber) {
+        this.directory = directory;
+        this.codec = codec;
+        this.tree = tree;
+        this.syncEvery = syncEvery;
+        this.log = log;
+        this.logNumber = logNumber;
+    }
+
+    /**
+     * Open a tree in a directory, creating the directory if it does not exist. The last snapshot is loaded,
+     * and the logs written since are replayed on top of it. A torn record at the end of the last log,
+     * from a crash while it was being written, is cut off.
+     * @param directory The directory holding the snapshot and the logs.
+     * @param codec Converts the tree's items to and from bytes.
+     * @param distanceFunction The same distance function every time the directory is opened.
+     * @param syncEvery The number of records to append before forcing the log to disk, or 0 to only force it
+     *                  on sync and close. 1 makes every change durable before it returns.
+     * @return A tree holding every item added and not removed, up to the last record that reached the disk.
+     * @throws IOException If the directory cannot be read, or a log other than the last is corrupt.
+     */
+    public static <T> PersistentBKTree<T> open(Path directory, ItemCodec<T> codec,
+                                               DistanceFunction<T> distanceFunction, int syncEvery)
+            throws IOException {
+        if (directory == null)
+            throw new NullPointerException("directory cannot be null.");
+        if (codec == null)
+            throw new NullPointerException("codec cannot be null.");
+        if (distanceFunction == null)
+            throw new NullPointerException("distanceFunction cannot be null.");
+        if (syncEvery < 0)
+            throw new IllegalArgumentException("syncEvery cannot be negative.");
+
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_TEMP)); // Left by a compaction that did not finish.
+        Path snapshot = directory.resolve(SNAPSHOT);
+        BKTree<T> tree = Files.exists(snapshot)
+                ? MappedBKTree.open(snapshot, codec, distanceFunction).toBKTree()
+                : new BKTree<>(distanceFunction);
+
+        List<Long> logNumbers = logNumbers(directory);
+        long validLength = 0;
+        for (int i = 0; i < logNumbers.size(); i++) {
+            Path logFile = logPath(directory, logNumbers.get(i));
+            validLength = replay(logFile, tree, codec);
+            if (validLength < Files.size(logFile) && i < logNumbers.size() - 1)
+                throw new IOException("Log " + logFile + " is corrupt after " + validLength + " bytes.");
+        }
+
+        FileChannel log;
+        long logNumber;
+        if (logNumbers.isEmpty()) {
+            logNumber = 1;
+            log = FileChannel.open(logPath(directory, logNumber), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+        } else { // Append to the last log, after its last valid record.
+            logNumber = logNumbers.get(logNumbers.size() - 1);
+            log = FileChannel.open(logPath(directory, logNumber), StandardOpenOption.WRITE);
+            log.truncate(validLength);
+            log.position(validLength);
+        }
+        return new PersistentBKTree<>(directory, codec, tree, syncEvery, log, logNumber);
+    }
+
+    // Apply each valid record of a log to tree, and return the length of the log up to the first invalid one.
+    private static <T> long replay(Path logFile, BKTree<T> tree, ItemCodec<T> codec) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = Files.size(logFile), position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile),
+                BUFFER_SIZE))) {
+            while (size - position >= RECORD_OVERHEAD) {
+                int length = in.readInt();
+                if (length < 0 || length > size - position - RECORD_OVERHEAD) // Torn while being written.
+                    break;
+                byte op = in.readByte();
+                byte[] item = new byte[length];
+                in.readFully(item);
+                crc.reset();
+                crc.update(op);
+                crc.update(item, 0, length);
+                if (in.readInt() != (int) crc.getValue())
+                    break;
+
+                switch (op) {
+                    case ADD:
+                        tree.add(codec.decode(ByteBuffer.wrap(item), 0, length));
+                        break;
+                    case REMOVE:
+                        tree.remove(codec.decode(ByteBuffer.wrap(item), 0, length));
+                        break;
+                    case CLEAR:
+                        tree.clear();
+                        break;
+                    default:
+                        throw new IOException("Unknown operation " + op + " in log " + logFile + ".");
+                }
+                position += RECORD_OVERHEAD + length;
+            }
+        }
+        return position;
+    }
+
+    // The numbers of the logs in a directory, in ascending order.
+    private static List<Long> logNumbers(Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path logFile : logs) {
+                String name = logFile.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) { // Not a log written by this class.
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path logPath(Path directory, long logNumber) {
+        return directory.resolve(LOG_PREFIX + logNumber + LOG_SUFFIX);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> search(T t, int radius) {
+        return tree.search(t, radius);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        tree.search(t, radius, consumer);
+    }
+
+    /**
+     * Add an item to the tree, and append it to the log if it was not already in the tree.
+     * @param t A non-null, searchable object to add to the tree.
+     * @return If t did not already exist in the tree.
+     * @throws UncheckedIOException If the log cannot be written. The item stays in the tree,
+     *                              but may not be there when the tree is reopened.
+     */
+    @Override
+    public boolean add(T t) {
+        ensureOpen();
+        if (!tree.add(t))
+            return false;
+        append(ADD, t);
+        return true;
+    }
+
+    /**
+     * @param o An object that is potentially in the tree.
+     * @return If the tree contains object o.
+     */
+    @Override
+    public boolean contains(Object o) {
+        return tree.contains(o);
+    }
+
+    /**
+     * Remove an object from the tree, and append the removal to the log if it was in the tree.
+     * @param o An object that is potentially in the tree.
+     * @return If an item was removed.
+     * @throws UncheckedIOException If the log cannot be written.
+     */
+    @Override
+    public boolean remove(Object o) {
+        ensureOpen();
+        if (!tree.remove(o))
+            return false;
+        @SuppressWarnings("unchecked")
+        T t = (T) o; // Equal to an item of the tree.
+        append(REMOVE, t);
+        return true;
+    }
+
+    /**
+     * Remove every item from the tree, and append a single record of it to the log.
+     * @throws UncheckedIOException If the log cannot be written.
+     */
+    @Override
+    public void clear() {
+        ensureOpen();
+        if (tree.isEmpty())
+            return;
+        tree.clear();
+        append(CLEAR, null);
+    }
+
+    /**
+     * Iterate though the tree in breadth first order, as BKTree does.
+     * @return An iterator for the tree, which logs each item it removes.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> iterator = tree.iterator();
+        return new Iterator<T>() {
+
+            private T last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                ensureOpen();
+                iterator.remove();
+                append(REMOVE, last);
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    // Append a record to the log buffer, and write and force the log if enough records have built up.
+    private void append(byte op, T item) {
+        byte[] bytes = item == null ? NO_ITEM : codec.encode(item);
+        int recordLength = RECORD_OVERHEAD + bytes.length;
+        crc.reset();
+        crc.update(op);
+        crc.update(bytes, 0, bytes.length);
+        try {
+            if (recordLength > buffer.remaining())
+                writeBuffer();
+            ByteBuffer record = recordLength > buffer.capacity() ? ByteBuffer.allocate(recordLength) : buffer;
+            record.putInt(bytes.length).put(op).put(bytes).putInt((int) crc.getValue());
+            if (record != buffer) { // Too large to buffer, so written on its own.
+                record.flip();
+                while (record.hasRemaining())
+                    log.write(record);
+            }
+            if (syncEvery > 0 && ++unsynced >= syncEvery)
+                sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Write the buffered records to the log, without forcing them to disk.
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            log.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write every buffered record to the log, and force the log to disk,
+     * so every change made so far survives a crash.
+     * @throws IOException If the log cannot be written.
+     */
+    public void sync() throws IOException {
+        ensureOpen();
+        writeBuffer();
+        log.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Compact the tree in the background: write it as a new snapshot, then delete the logs the snapshot covers.
+     * The tree is frozen and a new log is started before this returns, so changes made while the snapshot
+     * is written go to the new log. Compactions run one after another, in the order they were started.
+     * @param executor Runs the writing of the snapshot.
+     * @return A future completed once the snapshot is in place and the old logs are deleted, or completed
+     *         exceptionally with an UncheckedIOException if the snapshot could not be written.
+     */
+    public CompletableFuture<Void> compactAsync(Executor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor cannot be null.");
+        ensureOpen();
+        FrozenBKTree<T> snapshot = tree.freeze();
+        long lastLog = logNumber;
+        try {
+            startNextLog();
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new UncheckedIOException(e));
+            return failed;
+        }
+
+        compaction = compaction.handle((ignored, e) -> null) // Run even if the last compaction failed.
+                .thenRunAsync(() -> {
+                    try {
+                        writeSnapshot(snapshot, lastLog);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor);
+        return compaction;
+    }
+
+    /**
+     * Compact the tree on the calling thread, after any compaction still running in the background.
+     * @see #compactAsync(Executor)
+     * @throws IOException If the snapshot could not be written.
+     */
+    public void compact() throws IOException {
+        await(compactAsync(Runnable::run));
+    }
+
+    // Force the current log to disk, and start appending to a new one.
+    private void startNextLog() throws IOException {
+        sync();
+        log.close();
+        logNumber++;
+        log = FileChannel.open(logPath(directory, logNumber), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    // Replace the snapshot with a frozen tree, then delete the logs up to lastLog, which it already holds.
+    private void writeSnapshot(FrozenBKTree<T> snapshot, long lastLog) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_TEMP);
+        MappedBKTree.write(snapshot, codec, temp);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+
+        for (long number : logNumbers(directory)) {
+            if (number <= lastLog)
+                Files.deleteIfExists(logPath(directory, number));
+        }
+    }
+
+    // Make the snapshot's new name durable, where the platform allows a directory to be forced.
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) { // Directories cannot be opened on some platforms, such as Windows.
+        }
+    }
+
+    /**
+     * Sync and close the log, and wait for any compaction still running. The tree can still be searched,
+     * but no longer changed.
+     * @throws IOException If the log cannot be written, or the last compaction failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            sync();
+        } finally {
+            closed = true;
+            log.close();
+        }
+        await(compaction);
+    }
+
+    // Wait for a future, rethrowing an IOException it failed with.
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("Tree is closed.");
+    }
+}
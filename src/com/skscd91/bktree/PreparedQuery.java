@@ -0,0 +1,17 @@
+package com.skscd91.bktree;
+
+/**
+ * A query that has been prepared by a DistanceFunction to be compared against many items.
+ * A prepared query is only meant to be used by one thread at a time.
+ *
+ * @see DistanceFunction#prepare(Object)
+ */
+public interface PreparedQuery<T> {
+
+    /**
+     * @param item The item to compare against the query.
+     * @param maxDistance The largest distance the caller is interested in.
+     * @return The same result as DistanceFunction.distance(item, query, maxDistance).
+     */
+    int distanceTo(T item, int maxDistance);
+}
@@ -0,0 +1,8 @@
+package com.skscd91.bktree;
+
+/**
+ * Receives each item found by a search of the BKTree, along with its distance from the query.
+ */
+public interface ResultConsumer<T> {
+    void accept(T item, int distance);
+}
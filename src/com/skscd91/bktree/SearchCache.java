@@ -0,0 +1,209 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.*;
+
+/**
+ * A bounded cache of search results in front of a BKTree, for workloads where the same queries repeat.
+ * Results are cached by query and radius, and the least recently used ones are evicted once the cache is full.
+ *
+ * Items added or removed through the cache update the cached results that they affect, so the rest of
+ * the cache stays valid. This costs one bounded distance calculation per cached result on every add.
+ * If the tree is modified any other way, the whole cache is cleared on its next use.
+ *
+ * A SearchCache is thread safe, since every method locks the cache. While it is shared between threads,
+ * the tree must only be modified through the cache.
+ *
+ * @param <T> The type of the items in the tree.
+ */
+public class SearchCache<T> {
+
+    private final BKTree<T> tree;
+    private final int capacity;
+    private final LinkedHashMap<Key<T>, List<SearchResult<T>>> results;
+    private int treeModCount; // The tree's modCount that the cached results are valid for.
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param tree The tree to search.
+     * @param capacity The most results to keep, at least 1.
+     */
+    public SearchCache(BKTree<T> tree, int capacity) {
+        if (tree == null)
+            throw new NullPointerException("tree cannot be null.");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1.");
+
+        this.tree = tree;
+        this.capacity = capacity;
+        this.treeModCount = tree.modCount();
+        this.results = new LinkedHashMap<Key<T>, List<SearchResult<T>>>(16, 0.75f, true) { // In access order.
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key<T>, List<SearchResult<T>>> eldest) {
+                if (size() <= SearchCache.this.capacity)
+                    return false;
+                evictionCount++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Search the tree for items within a maximum distance from t, or return the cached results of the same search.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     * @see BKTree#search(Object, int)
+     */
+    public synchronized List<SearchResult<T>> search(T t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ensureValid();
+        Key<T> key = new Key<>(t, radius);
+        List<SearchResult<T>> searchResults = results.get(key);
+        if (searchResults != null) {
+            hitCount++;
+            return searchResults;
+        }
+        missCount++;
+        searchResults = tree.search(t, radius);
+        results.put(key, searchResults);
+        return searchResults;
+    }
+
+    /**
+     * Add an item to the tree, and add it to the cached results it matches.
+     * @param t A non-null, searchable object to add to the tree.
+     * @return If t did not already exist in the tree.
+     */
+    public synchronized boolean add(T t) {
+        ensureValid();
+        if (!tree.add(t))
+            return false;
+        DistanceFunction<T> distanceFunction = tree.distanceFunction();
+        for (Map.Entry<Key<T>, List<SearchResult<T>>> entry : results.entrySet()) {
+            Key<T> key = entry.getKey();
+            int distance = distanceFunction.distance(key.query, t, key.radius);
+            if (distance <= key.radius)
+                entry.setValue(withResult(entry.getValue(), new SearchResult<>(distance, t)));
+        }
+        treeModCount = tree.modCount();
+        return true;
+    }
+
+    /**
+     * Remove an item from the tree, and from the cached results that hold it.
+     * @param o An object that is potentially in the tree.
+     * @return If an item was removed.
+     */
+    public synchronized boolean remove(Object o) {
+        ensureValid();
+        if (!tree.remove(o))
+            return false;
+        for (Map.Entry<Key<T>, List<SearchResult<T>>> entry : results.entrySet())
+            entry.setValue(withoutItem(entry.getValue(), o));
+        treeModCount = tree.modCount();
+        return true;
+    }
+
+    /**
+     * Remove every cached result. The hit and miss counts are kept.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    /**
+     * @return The number of cached results.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * @return The number of searches answered from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of searches that had to search the tree.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The number of results evicted to make room for newer ones.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return The fraction of searches answered from the cache, or 0 if there have been none.
+     */
+    public synchronized double getHitRate() {
+        long searches = hitCount + missCount;
+        return searches == 0 ? 0 : (double) hitCount / searches;
+    }
+
+    // Clear the cache if the tree was modified without going through it.
+    private void ensureValid() {
+        if (treeModCount != tree.modCount()) {
+            results.clear();
+            treeModCount = tree.modCount();
+        }
+    }
+
+    // A copy of a sorted result list with one more result, still sorted by distance.
+    private static <T> List<SearchResult<T>> withResult(List<SearchResult<T>> searchResults, SearchResult<T> result) {
+        ArrayList<SearchResult<T>> updated = new ArrayList<>(searchResults.size() + 1);
+        updated.addAll(searchResults);
+        int i = updated.size();
+        while (i > 0 && updated.get(i - 1).getDistance() > result.getDistance())
+            i--;
+        updated.add(i, result);
+        return Collections.unmodifiableList(updated);
+    }
+
+    // The result list without any result holding an item equal to o, or the same list if there is none.
+    private static <T> List<SearchResult<T>> withoutItem(List<SearchResult<T>> searchResults, Object o) {
+        for (int i = 0; i < searchResults.size(); i++) {
+            if (searchResults.get(i).getItem().equals(o)) {
+                ArrayList<SearchResult<T>> updated = new ArrayList<>(searchResults);
+                updated.remove(i);
+                return Collections.unmodifiableList(updated);
+            }
+        }
+        return searchResults;
+    }
+
+    // A query and radius that results are cached by.
+    private static final class Key<T> {
+        private final T query;
+        private final int radius;
+
+        Key(T query, int radius) {
+            this.query = query;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key<?> other = (Key<?>) o;
+            return radius == other.radius && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * query.hashCode() + radius;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs searches asynchronously on an Executor, for servers answering many queries at once.
+ * Each search returns a CompletableFuture, so request handlers do not block a thread while they wait.
+ *
+ * Identical searches, by query and radius, that arrive while one is still queued or running are coalesced:
+ * they share its single traversal and its result list. A search that finishes is forgotten, so later searches
+ * see later changes to the tree. Queries are compared with equals, as in SearchCache.
+ *
+ * Each search can be given a deadline, after which its future completes with a TimeoutException.
+ * Cancelling or timing out a future only drops that caller's interest. A traversal is not interrupted once
+ * it has started, but one whose callers have all given up before it starts is skipped, so a backlog of
+ * expired searches does not hold up newer ones.
+ *
+ * Use a bounded thread pool to limit how many traversals run at once, or on Java 21 and later,
+ * Executors.newVirtualThreadPerTaskExecutor() for a thread per search. The searcher must be safe to call
+ * from several threads at once, as a BKTree is while it is not being modified.
+ *
+ * @param <T> The type of the items searched.
+ */
+public class SearchService<T> {
+
+    private static final int ABANDONED = -1; // The waiter count of a search skipped because no caller was left.
+
+    private final Searcher<T> searcher;
+    private final Executor executor;
+    private final ConcurrentHashMap<Key<T>, Pending<T>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong searchCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * @param searcher The search to run, such as tree::search.
+     * @param executor Runs each traversal.
+     */
+    public SearchService(Searcher<T> searcher, Executor executor) {
+        if (searcher == null)
+            throw new NullPointerException("searcher cannot be null.");
+        if (executor == null)
+            throw new NullPointerException("executor cannot be null.");
+        this.searcher = searcher;
+        this.executor = executor;
+    }
+
+    /**
+     * Search for items within a maximum distance from t, without a deadline.
+     * @param t The item to find approximate matches of.
+     * @param radius The maximum distance from t.
+     * @return A future of an immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public CompletableFuture<List<SearchResult<T>>> search(T t, int radius) {
+        if (t == null)
+            return CompletableFuture.completedFuture(Collections.emptyList());
+
+        while (true) {
+            Key<T> key = new Key<>(t, radius);
+            Pending<T> search = pending.get(key);
+            if (search == null) {
+                Pending<T> created = new Pending<>();
+                search = pending.putIfAbsent(key, created);
+                if (search == null) {
+                    start(key, created);
+                    return caller(created);
+                }
+            }
+            if (search.join()) {
+                coalescedCount.incrementAndGet();
+                return caller(search);
+            }
+            pending.remove(key, search); // Skipped just now; start another.
+        }
+    }
+
+    /**
+     * Search for items within a maximum distance from t, giving up after a deadline.
+     * @param t The item to find approximate matches of.
+     * @param radius The maximum distance from t.
+     * @param timeout How long to wait for the results.
+     * @param unit The unit of timeout.
+     * @return A future of an immutable list of objects, sorted by distance, that approximately match t,
+     *         which completes with a TimeoutException if the results are not ready in time.
+     */
+    public CompletableFuture<List<SearchResult<T>>> search(T t, int radius, long timeout, TimeUnit unit) {
+        if (unit == null)
+            throw new NullPointerException("unit cannot be null.");
+        CompletableFuture<List<SearchResult<T>>> future = search(t, radius);
+        if (future.isDone())
+            return future;
+        ScheduledFuture<?> deadline = Deadlines.TIMER.schedule(
+                () -> future.completeExceptionally(new TimeoutException()), timeout, unit);
+        future.whenComplete((searchResults, e) -> deadline.cancel(false));
+        return future;
+    }
+
+    // Queue the traversal for a new pending search.
+    private void start(Key<T> key, Pending<T> search) {
+        try {
+            executor.execute(() -> run(key, search));
+        } catch (RuntimeException e) { // Such as a RejectedExecutionException from a saturated pool.
+            pending.remove(key, search);
+            search.result.completeExceptionally(e);
+        }
+    }
+
+    private void run(Key<T> key, Pending<T> search) {
+        if (search.waiters.compareAndSet(0, ABANDONED)) {
+            skippedCount.incrementAndGet();
+            pending.remove(key, search);
+            search.result.cancel(false);
+            return;
+        }
+        searchCount.incrementAndGet();
+        try {
+            List<SearchResult<T>> searchResults = searcher.search(key.query, key.radius);
+            pending.remove(key, search); // Before completing, so no one joins a finished search.
+            search.result.complete(searchResults);
+        } catch (Throwable e) {
+            pending.remove(key, search);
+            search.result.completeExceptionally(e);
+        }
+    }
+
+    // A future for one caller of a search, which can be cancelled or time out without affecting the others.
+    private CompletableFuture<List<SearchResult<T>>> caller(Pending<T> search) {
+        CompletableFuture<List<SearchResult<T>>> future = new CompletableFuture<>();
+        search.result.whenComplete((searchResults, e) -> {
+            if (e == null)
+                future.complete(searchResults);
+            else
+                future.completeExceptionally(e);
+        });
+        future.whenComplete((searchResults, e) -> search.waiters.decrementAndGet());
+        return future;
+    }
+
+    /**
+     * @return The number of traversals run, each shared by every coalesced caller.
+     */
+    public long getSearchCount() {
+        return searchCount.get();
+    }
+
+    /**
+     * @return The number of searches that joined one already queued or running instead of starting their own.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return The number of traversals skipped because all their callers had cancelled or timed out.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * @return The number of distinct searches queued or running.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // A queued or running search, and the number of callers still waiting for it, starting with its creator.
+    private static final class Pending<T> {
+        private final CompletableFuture<List<SearchResult<T>>> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+        // Add a caller, unless the search has already been skipped.
+        boolean join() {
+            while (true) {
+                int count = waiters.get();
+                if (count == ABANDONED)
+                    return false;
+                if (waiters.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+    }
+
+    // A query and radius that searches are coalesced by.
+    private static final class Key<T> {
+        private final T query;
+        private final int radius;
+
+        Key(T query, int radius) {
+            this.query = query;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key<?> other = (Key<?>) o;
+            return radius == other.radius && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * query.hashCode() + radius;
+        }
+    }
+
+    // One daemon thread shared by every service to time out searches, created on first use.
+    private static final class Deadlines {
+        private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "SearchService deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            TIMER.setRemoveOnCancelPolicy(true); // Most deadlines are cancelled, so do not keep them queued.
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.skscd91.bktree;
+
+/**
+ * Counters filled in by a search of a BKTree, to show how much of the tree a query had to look at.
+ * Pass one to BKTree.search to collect them; searches without one do no counting at all.
+ * Each search adds to the counters, so one SearchStats can total many queries until it is reset.
+ * A SearchStats is not thread safe.
+ */
+public final class SearchStats {
+
+    private long searches;
+    private long rootsVisited; // Searches that reached a root, which is the one visited node that is no child.
+    private long nodesVisited;
+    private long distanceCalls;
+    private long childrenPruned;
+    private long results;
+    private long elapsedNanos;
+
+    /**
+     * @return The number of searches counted.
+     */
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return The number of nodes taken from the search's frontier and compared against the query.
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return The number of times the distance function was called.
+     */
+    public long getDistanceCalls() {
+        return distanceCalls;
+    }
+
+    /**
+     * @return The number of children of visited nodes that were skipped because their subtrees could not match.
+     */
+    public long getChildrenPruned() {
+        return childrenPruned;
+    }
+
+    /**
+     * @return The number of items found.
+     */
+    public long getResults() {
+        return results;
+    }
+
+    /**
+     * @return The total time spent searching, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return The fraction of the children of visited nodes that were pruned, from 0 to 1.
+     */
+    public double getPruningRatio() {
+        long children = nodesVisited - rootsVisited + childrenPruned; // Every visited node but a root was a child.
+        return children == 0 ? 0 : (double) childrenPruned / children;
+    }
+
+    /**
+     * Set every counter back to zero.
+     */
+    public void reset() {
+        searches = rootsVisited = nodesVisited = distanceCalls = childrenPruned = results = elapsedNanos = 0;
+    }
+
+    void addSearch(long nodesVisited, long distanceCalls, long childrenPruned, long results, long elapsedNanos) {
+        this.searches++;
+        if (nodesVisited > 0) // A search of an empty tree visits nothing, not even a root.
+            this.rootsVisited++;
+        this.nodesVisited += nodesVisited;
+        this.distanceCalls += distanceCalls;
+        this.childrenPruned += childrenPruned;
+        this.results += results;
+        this.elapsedNanos += elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchStats{searches=" + searches + ", nodesVisited=" + nodesVisited
+                + ", distanceCalls=" + distanceCalls + ", childrenPruned=" + childrenPruned
+                + ", results=" + results + ", elapsedNanos=" + elapsedNanos + '}';
+    }
+}
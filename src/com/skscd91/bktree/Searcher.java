@@ -0,0 +1,21 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.List;
+
+/**
+ * Finds the items within a maximum distance of a query, such as the search method of a BKTree,
+ * ConcurrentBKTree, FrozenBKTree or ShardedBKTree, passed as tree::search.
+ *
+ * @see SearchService
+ */
+public interface Searcher<T> {
+
+    /**
+     * @param t The item to find approximate matches of.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    List<SearchResult<T>> search(T t, int radius);
+}
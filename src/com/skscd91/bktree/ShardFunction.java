@@ -0,0 +1,31 @@
+package com.skscd91.bktree;
+
+/**
+ * Assigns items of a ShardedBKTree to shards, so that a search only has to visit the shards that can hold a match.
+ * For any item within radius of a query, shard(item) must be from lowestShard(query, radius)
+ * to highestShard(query, radius), inclusive.
+ *
+ * @see ShardedBKTree
+ */
+public interface ShardFunction<T> {
+
+    /**
+     * @param item A non-null item.
+     * @return The shard the item is stored in.
+     */
+    int shard(T item);
+
+    /**
+     * @param query A non-null query.
+     * @param radius The maximum distance from the query.
+     * @return The lowest shard that could hold an item within radius of the query.
+     */
+    int lowestShard(T query, int radius);
+
+    /**
+     * @param query A non-null query.
+     * @param radius The maximum distance from the query.
+     * @return The highest shard that could hold an item within radius of the query.
+     */
+    int highestShard(T query, int radius);
+}
@@ -0,0 +1,53 @@
+package com.skscd91.bktree;
+
+/**
+ * Various shard functions for use with the ShardedBKTree.
+ */
+public final class ShardFunctions {
+
+    private ShardFunctions() {}
+
+    /**
+     * @return A shard function putting each length of CharSequence in its own shard.
+     * @see #byLength(int)
+     */
+    public static ShardFunction<CharSequence> byLength() {
+        return byLength(1);
+    }
+
+    /**
+     * Shard CharSequence objects by length, for distance functions where items within radius of a query
+     * are no more than radius longer or shorter than it, such as the Levenshtein and Hamming distances.
+     * @param bucketWidth The number of consecutive lengths in each shard, at least 1.
+     * @return A shard function putting lengths 0 to bucketWidth - 1 in shard 0, and so on.
+     */
+    public static ShardFunction<CharSequence> byLength(int bucketWidth) {
+        if (bucketWidth < 1)
+            throw new IllegalArgumentException("bucketWidth must be at least 1.");
+        return new LengthShardFunction(bucketWidth);
+    }
+
+    private static class LengthShardFunction implements ShardFunction<CharSequence> {
+
+        private final int bucketWidth;
+
+        public LengthShardFunction(int bucketWidth) {
+            this.bucketWidth = bucketWidth;
+        }
+
+        @Override
+        public int shard(CharSequence item) {
+            return item.length() / bucketWidth;
+        }
+
+        @Override
+        public int lowestShard(CharSequence query, int radius) {
+            return Math.max(0, query.length() - radius) / bucketWidth;
+        }
+
+        @Override
+        public int highestShard(CharSequence query, int radius) {
+            return BKTree.addCapped(query.length(), radius) / bucketWidth;
+        }
+    }
+}
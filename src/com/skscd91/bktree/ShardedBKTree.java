@@ -0,0 +1,259 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A set of items split by a ShardFunction into separate BKTrees, one per shard.
+ * Adding, removing and checking for an item only touch the item's own shard, and a search only visits
+ * the shards that can hold a match for its query and radius. For Levenshtein distance sharded by length,
+ * a search within radius r only visits the trees holding lengths within r of the query's length.
+ * Each shard is also a smaller tree to search, with less of the tree's shape spent telling lengths apart.
+ *
+ * @param <T> A type with a metric distance function, as in BKTree.
+ * @see ShardFunctions#byLength()
+ */
+public class ShardedBKTree<T> extends AbstractSet<T> {
+
+    private final DistanceFunction<T> distanceFunction;
+    private final ShardFunction<? super T> shardFunction;
+    private final TreeMap<Integer, BKTree<T>> shards = new TreeMap<>();
+    private int modCount; // Modification count for fail-fast iterator.
+
+    /**
+     * @param distanceFunction A function that computes the distance between two objects of type T.
+     * @param shardFunction A function that assigns each item to a shard, consistently with distanceFunction.
+     */
+    public ShardedBKTree(DistanceFunction<T> distanceFunction, ShardFunction<? super T> shardFunction) {
+        if (distanceFunction == null)
+            throw new NullPointerException("distanceFunction cannot be null.");
+        if (shardFunction == null)
+            throw new NullPointerException("shardFunction cannot be null.");
+        this.distanceFunction = distanceFunction;
+        this.shardFunction = shardFunction;
+    }
+
+    /**
+     * @param distanceFunction A function that computes the distance between two CharSequence objects,
+     *                         where matches are no more than radius longer or shorter than the query.
+     * @return An empty tree with one shard per length.
+     */
+    public static ShardedBKTree<CharSequence> byLength(DistanceFunction<CharSequence> distanceFunction) {
+        return new ShardedBKTree<>(distanceFunction, ShardFunctions.byLength());
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> search(T t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as it is found. Shards are searched one after another, in ascending order.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(T t, int radius, ResultConsumer<? super T> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (t == null)
+            return;
+        for (BKTree<T> shard : shardsWithin(t, radius))
+            shard.search(t, radius, consumer);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, using the common ForkJoinPool.
+     * @see #parallelSearch(Object, int, ForkJoinPool)
+     */
+    public List<SearchResult<T>> parallelSearch(T t, int radius) {
+        return parallelSearch(t, radius, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, searching each shard that
+     * can hold a match as its own task in a ForkJoinPool. The calling thread searches the last shard itself.
+     * The distance function must be safe to call from multiple threads.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param pool The pool to run the search in.
+     * @return An immutable list of objects, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<T>> parallelSearch(T t, int radius, ForkJoinPool pool) {
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null.");
+        if (t == null)
+            return Collections.emptyList();
+
+        List<BKTree<T>> candidates = new ArrayList<>(shardsWithin(t, radius));
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+        List<ForkJoinTask<List<SearchResult<T>>>> tasks = new ArrayList<>(candidates.size() - 1);
+        for (BKTree<T> shard : candidates.subList(0, candidates.size() - 1))
+            tasks.add(pool.submit(() -> shard.search(t, radius)));
+
+        ArrayList<SearchResult<T>> searchResults = new ArrayList<>(candidates.get(candidates.size() - 1).search(t, radius));
+        for (ForkJoinTask<List<SearchResult<T>>> task : tasks)
+            searchResults.addAll(task.join());
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    // The shards that can hold an item within radius of t, in ascending order.
+    private Collection<BKTree<T>> shardsWithin(T t, int radius) {
+        int lowest = shardFunction.lowestShard(t, radius), highest = shardFunction.highestShard(t, radius);
+        if (lowest > highest) // Only for a negative radius.
+            return Collections.emptyList();
+        return shards.subMap(lowest, true, highest, true).values();
+    }
+
+    /**
+     * Add an item to the tree, in its shard.
+     * @param t A non-null, searchable object to add to the tree.
+     * @return If t did not already exist in the tree.
+     */
+    @Override
+    public boolean add(T t) {
+        if (t == null)
+            throw new NullPointerException();
+        if (!shards.computeIfAbsent(shardFunction.shard(t), shard -> new BKTree<>(distanceFunction)).add(t))
+            return false;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Check if the given object is in the tree, by checking only its shard.
+     * @param o An object that is potentially in the tree.
+     * @return If the tree contains object o.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            BKTree<T> shard = shards.get(shardFunction.shard((T) o));
+            return shard != null && shard.contains(o);
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    /**
+     * Remove an object from its shard, and drop the shard once it is empty.
+     * @param o An object that is potentially in the tree.
+     * @return If an item was removed.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null)
+            return false;
+        try {
+            @SuppressWarnings("unchecked")
+            int key = shardFunction.shard((T) o);
+            BKTree<T> shard = shards.get(key);
+            if (shard == null || !shard.remove(o))
+                return false;
+            if (shard.isEmpty())
+                shards.remove(key);
+            modCount++;
+            return true;
+        } catch (ClassCastException e) { // If o is not an instance of T, return false.
+            return false;
+        }
+    }
+
+    /**
+     * Remove every item from the tree.
+     */
+    @Override
+    public void clear() {
+        shards.clear();
+        modCount++;
+    }
+
+    /**
+     * Iterate through each shard in ascending order, and through each shard's tree in breadth first order.
+     * @return An iterator for the tree, which removes items from their shard.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<BKTree<T>> nextShards = shards.values().iterator();
+        return new Iterator<T>() {
+
+            private Iterator<T> shardIterator = Collections.emptyIterator();
+            private Iterator<T> lastIterator;
+            private int itModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                while (!shardIterator.hasNext() && nextShards.hasNext())
+                    shardIterator = nextShards.next().iterator();
+                return shardIterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                ensureNotModified(); // Fail if modified outside remove.
+                lastIterator = shardIterator;
+                return shardIterator.next();
+            }
+
+            // Leaves an emptied shard in place, since the shards cannot change while they are iterated.
+            @Override
+            public void remove() {
+                if (lastIterator == null)
+                    throw new IllegalStateException(); // Cannot remove what hasn't been visited.
+                ensureNotModified();
+                lastIterator.remove();
+                lastIterator = null;
+                itModCount = ++modCount;
+            }
+
+            // Fail if the tree has been modified outside iterator.
+            private void ensureNotModified() {
+                if (itModCount != modCount)
+                    throw new ConcurrentModificationException();
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree, over all shards.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (BKTree<T> shard : shards.values())
+            size += shard.size();
+        return size;
+    }
+
+    /**
+     * @return The number of shards holding at least one item, or emptied by an iterator.
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+}
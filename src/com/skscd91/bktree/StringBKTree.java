@@ -0,0 +1,265 @@
+package com.skscd91.bktree;
+
+import com.skscd91.bktree.BKTree.SearchResult;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.*;
+
+import static com.skscd91.bktree.BKTree.addCapped;
+
+/**
+ * A BKTree specialised for strings, which stores all of its terms back to back in one char arena,
+ * optionally off-heap, and its structure in primitive arrays, so a term costs its characters
+ * plus four ints instead of a String and a node object.
+ *
+ * Terms are compared to queries in place: a search passes the distance function a reusable view
+ * of each visited term in the arena, so distance functions must not keep the items they are given.
+ * The functions in DistanceFunctions read the view directly or copy it into per-thread buffers,
+ * so no term is copied to a new object while searching.
+ * Search results and iterated items are copied out of the arena as Strings.
+ *
+ * Unlike BKTree, items are compared by content, so any CharSequence with the same characters as a term
+ * is contained in the tree. The tree only grows: items cannot be removed.
+ */
+public class StringBKTree extends AbstractSet<CharSequence> {
+
+    private final DistanceFunction<CharSequence> distanceFunction;
+    private final boolean offHeap;
+    private final NodeLinks links;
+    private CharBuffer arena; // The characters of every term, in the order they were added.
+    private int[] termStart; // termStart[n] to termStart[n + 1] are the characters of node n.
+    private int modCount; // Modification count for fail-fast iterator.
+
+    /**
+     * @param distanceFunction A function that computes the distance between two CharSequence objects.
+     */
+    public StringBKTree(DistanceFunction<CharSequence> distanceFunction) {
+        this(distanceFunction, false);
+    }
+
+    /**
+     * @param distanceFunction A function that computes the distance between two CharSequence objects.
+     * @param offHeap If the terms are stored in a direct buffer outside of the Java heap.
+     */
+    public StringBKTree(DistanceFunction<CharSequence> distanceFunction, boolean offHeap) {
+        if (distanceFunction == null)
+            throw new NullPointerException("distanceFunction cannot be null.");
+
+        this.distanceFunction = distanceFunction;
+        this.offHeap = offHeap;
+        links = new NodeLinks(16);
+        arena = allocate(256);
+        termStart = new int[17];
+    }
+
+    private CharBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity * 2).asCharBuffer() : CharBuffer.allocate(capacity);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @return An immutable list of Strings, sorted by distance, that approximately match t.
+     */
+    public List<SearchResult<CharSequence>> search(CharSequence t, int radius) {
+        if (t == null)
+            return Collections.emptyList();
+        ArrayList<SearchResult<CharSequence>> searchResults = new ArrayList<>();
+        search(t, radius, (item, distance) -> searchResults.add(new SearchResult<>(distance, item)));
+
+        searchResults.trimToSize();
+        Collections.sort(searchResults);
+        return Collections.unmodifiableList(searchResults);
+    }
+
+    /**
+     * Search for items in the tree that are within a maximum distance from t, passing each one to a consumer
+     * as a String when it is found.
+     * @param t The item to find approximate matches of from the tree.
+     * @param radius The maximum distance from t.
+     * @param consumer Receives each matching item and its distance from t, in no particular order.
+     */
+    public void search(CharSequence t, int radius, ResultConsumer<? super CharSequence> consumer) {
+        if (consumer == null)
+            throw new NullPointerException("consumer cannot be null.");
+        if (t == null || links.size() == 0)
+            return;
+
+        PreparedQuery<CharSequence> query = distanceFunction.prepare(t);
+        TermView term = new TermView();
+        int[] nextNodes = new int[16]; // Depth first stack of nodes.
+        int top = 1;
+
+        while (top > 0) {
+            int node = nextNodes[--top];
+            int maxDistance = addCapped(links.maxChildEdge(node), radius);
+            int distance = query.distanceTo(term.of(node), maxDistance);
+            if (distance > maxDistance)
+                continue;
+            if (distance <= radius)
+                consumer.accept(term.toString(), distance);
+
+            int lowBound = Math.max(0, distance - radius), highBound = addCapped(distance, radius);
+            for (int child = links.firstChild(node); child != NodeLinks.NONE && links.edge(child) >= lowBound;
+                 child = links.nextSibling(child)) {
+                if (links.edge(child) > highBound)
+                    continue;
+                if (top == nextNodes.length)
+                    nextNodes = Arrays.copyOf(nextNodes, top << 1);
+                nextNodes[top++] = child;
+            }
+        }
+    }
+
+    /**
+     * Add an item to the tree, copying its characters into the arena.
+     * @param t A non-null CharSequence to add to the tree.
+     * @return If no item with the same characters already existed in the tree.
+     */
+    @Override
+    public boolean add(CharSequence t) {
+        if (t == null)
+            throw new NullPointerException();
+
+        if (links.size() > 0) {
+            TermView term = new TermView();
+            int parent = 0, distance;
+            while ((distance = distanceFunction.distance(term.of(parent), t)) != 0 || !term.contentEquals(t)) {
+                int child = links.child(parent, distance);
+                if (child == NodeLinks.NONE) {
+                    links.link(parent, distance, append(t));
+                    return true;
+                }
+                parent = child;
+            }
+            return false;
+        }
+
+        append(t);
+        return true;
+    }
+
+    // Copy t into the arena as a new node, and return the node.
+    private int append(CharSequence t) {
+        int node = links.add();
+        int start = termStart[node], end = start + t.length();
+        if (end > arena.capacity() || end < 0) {
+            if (end < 0)
+                throw new IllegalStateException("StringBKTree arena is full.");
+            CharBuffer grown = allocate((int) Math.min(Integer.MAX_VALUE - 8, Math.max(end, arena.capacity() * 3L / 2)));
+            arena.rewind();
+            grown.put(arena);
+            arena = grown;
+        }
+        for (int i = 0; i < t.length(); i++)
+            arena.put(start + i, t.charAt(i));
+        if (node + 2 > termStart.length)
+            termStart = Arrays.copyOf(termStart, termStart.length + (termStart.length >> 1));
+        termStart[node + 1] = end;
+        modCount++;
+        return node;
+    }
+
+    /**
+     * Check if an item with the same characters as the given object is in the tree.
+     * @param o An object that is potentially in the tree.
+     * @return If o is a CharSequence with the same characters as an item in the tree.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof CharSequence) || links.size() == 0)
+            return false;
+        CharSequence t = (CharSequence) o;
+        TermView term = new TermView();
+        for (int node = 0; node != NodeLinks.NONE; ) {
+            int distance = distanceFunction.distance(term.of(node), t, links.maxChildEdge(node));
+            if (distance == 0 && term.contentEquals(t))
+                return true;
+            node = links.child(node, distance);
+        }
+        return false;
+    }
+
+    /**
+     * Iterate though the tree in the order the items were added.
+     * @return An iterator over copies of the items, which does not support remove.
+     */
+    @Override
+    public Iterator<CharSequence> iterator() {
+        return new Iterator<CharSequence>() {
+
+            private int next = 0;
+            private final int itModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < links.size();
+            }
+
+            @Override
+            public CharSequence next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (itModCount != modCount)
+                    throw new ConcurrentModificationException();
+                return new TermView().of(next++).toString();
+            }
+        };
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    @Override
+    public int size() {
+        return links.size();
+    }
+
+    // A reusable view of one term in the arena. Reads the tree's current arena, so it survives the arena growing.
+    private final class TermView implements CharSequence {
+        private int start, length;
+
+        TermView of(int node) {
+            start = termStart[node];
+            length = termStart[node + 1] - start;
+            return this;
+        }
+
+        boolean contentEquals(CharSequence other) {
+            if (other.length() != length)
+                return false;
+            for (int i = 0; i < length; i++) {
+                if (arena.get(start + i) != other.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            return arena.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = arena.get(start + i);
+            return new String(chars);
+        }
+    }
+}
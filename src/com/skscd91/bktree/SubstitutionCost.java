@@ -0,0 +1,18 @@
+package com.skscd91.bktree;
+
+/**
+ * The cost of substituting one character for another, for a weighted Levenshtein distance.
+ * For the distance to be a metric, as a BKTree needs, the cost must be positive, symmetric,
+ * and no greater than the cost of going through a third character: cost(a, c) <= cost(a, b) + cost(b, c).
+ *
+ * @see DistanceFunctions#weightedLevenshteinDistance(int, SubstitutionCost)
+ */
+public interface SubstitutionCost {
+
+    /**
+     * @param a A character of one word.
+     * @param b A different character of the other word.
+     * @return The cost of replacing a with b, at least 1.
+     */
+    int cost(char a, char b);
+}
@@ -0,0 +1,129 @@
+package com.skscd91.bktree;
+
+import java.util.Arrays;
+
+/**
+ * The shape of a BKTree at one point in time, to spot trees that have become deep or narrow.
+ * A healthy tree is shallow, with most nodes near the average depth, and its edge distances spread
+ * over the range of the distance function. A tree built from sorted or clustered items tends to have
+ * a long tail of depths and few distinct edges, and every search of it visits more nodes.
+ *
+ * @see BKTree#treeStats()
+ */
+public final class TreeStats {
+
+    private final long[] depthCounts;
+    private final long[] fanOutCounts;
+    private final long[] edgeCounts;
+    private final long nodeCount;
+    private final long deletedCount;
+
+    TreeStats(long[] depthCounts, long[] fanOutCounts, long[] edgeCounts, long deletedCount) {
+        this.deletedCount = deletedCount;
+        this.depthCounts = depthCounts;
+        this.fanOutCounts = fanOutCounts;
+        this.edgeCounts = edgeCounts;
+        long nodes = 0;
+        for (long count : depthCounts)
+            nodes += count;
+        this.nodeCount = nodes;
+    }
+
+    /**
+     * @return The number of nodes in the tree, including deleted ones.
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return The number of nodes that are marked as deleted, but still in the tree.
+     */
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * @return The depth of the deepest node, where the root has depth 0, or -1 if the tree is empty.
+     */
+    public int getHeight() {
+        return depthCounts.length - 1;
+    }
+
+    /**
+     * @return The mean depth of the nodes, or 0 if the tree is empty.
+     */
+    public double getAverageDepth() {
+        long total = 0;
+        for (int depth = 0; depth < depthCounts.length; depth++)
+            total += depth * depthCounts[depth];
+        return nodeCount == 0 ? 0 : (double) total / nodeCount;
+    }
+
+    /**
+     * @return The number of nodes without children.
+     */
+    public long getLeafCount() {
+        return fanOutCounts.length == 0 ? 0 : fanOutCounts[0];
+    }
+
+    /**
+     * @return An array where element i is the number of nodes at depth i.
+     */
+    public long[] getDepthHistogram() {
+        return depthCounts.clone();
+    }
+
+    /**
+     * @return An array where element i is the number of nodes with i children.
+     */
+    public long[] getFanOutHistogram() {
+        return fanOutCounts.clone();
+    }
+
+    /**
+     * @return An array where element i is the number of children at distance i from their parent.
+     */
+    public long[] getEdgeHistogram() {
+        return edgeCounts.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "TreeStats{nodeCount=" + nodeCount + ", deletedCount=" + deletedCount + ", height=" + getHeight()
+                + ", averageDepth=" + getAverageDepth() + ", leafCount=" + getLeafCount()
+                + ", depthHistogram=" + Arrays.toString(depthCounts)
+                + ", fanOutHistogram=" + Arrays.toString(fanOutCounts)
+                + ", edgeHistogram=" + Arrays.toString(edgeCounts) + '}';
+    }
+
+    // Collects the histograms of a tree one node at a time.
+    static final class Builder {
+        private long[] depthCounts = new long[0];
+        private long[] fanOutCounts = new long[0];
+        private long[] edgeCounts = new long[0];
+        private long deletedCount;
+
+        void addNode(int depth, int childCount, boolean deleted) {
+            depthCounts = increment(depthCounts, depth);
+            fanOutCounts = increment(fanOutCounts, childCount);
+            if (deleted)
+                deletedCount++;
+        }
+
+        void addEdge(int distance) {
+            edgeCounts = increment(edgeCounts, distance);
+        }
+
+        TreeStats build() {
+            return new TreeStats(depthCounts, fanOutCounts, edgeCounts, deletedCount);
+        }
+
+        private static long[] increment(long[] counts, int index) {
+            if (index >= counts.length) // Histograms stay exactly as long as their largest value.
+                counts = Arrays.copyOf(counts, index + 1);
+            counts[index]++;
+            return counts;
+        }
+    }
+}
@@ -2,8 +2,21 @@ package com.skscd91.bktree;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -51,6 +64,331 @@ class BKTreeTest {
         assertEquals(4, tree.search("sort", 2).size(), "different CharSequences are different items");
     }
 
+    @Test
+    void searchWithConsumer() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        for (String s : testStrings)
+            tree.add(s);
+        List<CharSequence> items = new ArrayList<>();
+        int[] distanceSum = new int[1];
+        tree.search("sort", 2, (item, distance) -> {
+            items.add(item);
+            distanceSum[0] += distance;
+        });
+        assertEquals(3, items.size(), "result size");
+        assertTrue(items.contains("soft") && items.contains("some") && items.contains("soda"));
+        assertEquals(5, distanceSum[0], "distances passed with items");
+
+        tree.search(null, 2, (item, distance) -> fail("no search when t is null"));
+        assertThrows(NullPointerException.class, () -> tree.search("sort", 2, null));
+    }
+
+    @Test
+    void searchMatchesLinearScan() {
+        Random random = new Random(17);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        tree.addAll(words);
+
+        for (int q = 0; q < 50; q++) {
+            String query = words.get(random.nextInt(words.size()));
+            int radius = q % 4;
+            int expected = 0;
+            for (CharSequence item : tree) {
+                if (distFunc.distance(item, query) <= radius)
+                    expected++;
+            }
+            List<BKTree.SearchResult<CharSequence>> results = tree.search(query, radius);
+            assertEquals(expected, results.size(), "results for " + query + " within " + radius);
+            for (int i = 1; i < results.size(); i++)
+                assertTrue(results.get(i - 1).getDistance() <= results.get(i).getDistance(), "sorted by distance");
+        }
+    }
+
+    @Test
+    void parallelSearch() {
+        Random random = new Random(23);
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            tree.add(new String(chars));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int radius = 0; radius <= 3; radius++) {
+                List<BKTree.SearchResult<CharSequence>> expected = tree.search("abcd", radius);
+                for (int splitThreshold : new int[]{2, 8, BKTree.DEFAULT_SPLIT_THRESHOLD, 100000}) {
+                    List<BKTree.SearchResult<CharSequence>> results =
+                            tree.parallelSearch("abcd", radius, pool, splitThreshold);
+                    assertEquals(expected.size(), results.size(), "same size at radius " + radius);
+                    for (int i = 0; i < results.size(); i++)
+                        assertEquals(expected.get(i).getDistance(), results.get(i).getDistance(), "sorted by distance");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(new BKTree<>(distFunc).parallelSearch("abcd", 3).isEmpty(), "empty tree");
+        assertThrows(IllegalArgumentException.class, () -> tree.parallelSearch("abcd", 1, ForkJoinPool.commonPool(), 1));
+    }
+
+    @Test
+    void searchAll() {
+        Random random = new Random(37);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        tree.addAll(words);
+        List<CharSequence> queries = new ArrayList<>(words.subList(0, 600)); // More than one group.
+        queries.add(null);
+        queries.add("zzzzzzzzzzzz");
+
+        List<List<BKTree.SearchResult<CharSequence>>> results = tree.searchAll(queries, 2);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        List<List<BKTree.SearchResult<CharSequence>>> parallelResults = tree.searchAll(queries, 2, pool);
+        pool.shutdown();
+        assertEquals(queries.size(), results.size(), "one result list per query");
+        assertEquals(queries.size(), parallelResults.size(), "one result list per query");
+        for (int i = 0; i < queries.size(); i++) {
+            List<BKTree.SearchResult<CharSequence>> expected = tree.search(queries.get(i), 2);
+            assertEquals(expected.size(), results.get(i).size(), "results of " + queries.get(i));
+            assertEquals(expected.size(), parallelResults.get(i).size(), "parallel results of " + queries.get(i));
+            for (int j = 0; j < expected.size(); j++)
+                assertEquals(expected.get(j).getDistance(), results.get(i).get(j).getDistance(), "sorted by distance");
+        }
+        assertTrue(new BKTree<>(distFunc).searchAll(queries, 2).get(0).isEmpty(), "empty tree");
+    }
+
+    @Test
+    void nearest() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        assertTrue(tree.nearest("sort", 2).isEmpty(), "empty if tree is empty");
+        for (String s : testStrings)
+            tree.add(s);
+        List<BKTree.SearchResult<CharSequence>> results = tree.nearest("sort", 1);
+        assertEquals(1, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem());
+        assertEquals(testStrings.length, tree.nearest("sort", 100).size(), "at most the tree size");
+        assertEquals(testStrings.length, tree.nearest("sort", Integer.MAX_VALUE).size(), "k past any queue size");
+        assertTrue(tree.nearest("zzzzzz", 3, 2).isEmpty(), "nothing within maxRadius");
+        assertThrows(IllegalArgumentException.class, () -> tree.nearest("sort", 0));
+
+        Random random = new Random(31);
+        tree.clear();
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            tree.add(new String(chars));
+        }
+        for (int k : new int[]{1, 5, 20}) {
+            List<BKTree.SearchResult<CharSequence>> all = tree.search("abcdef", 6);
+            List<BKTree.SearchResult<CharSequence>> nearest = tree.nearest("abcdef", k);
+            assertEquals(k, nearest.size(), "k results");
+            for (int i = 0; i < k; i++)
+                assertEquals(all.get(i).getDistance(), nearest.get(i).getDistance(), "same distances as search");
+        }
+    }
+
+    @Test
+    void searchStream() {
+        int[] distanceCalls = new int[1];
+        BKTree<CharSequence> tree = new BKTree<>((left, right) -> {
+            distanceCalls[0]++;
+            return distFunc.distance(left, right);
+        });
+        assertFalse(tree.searchIterator("sort", 2).hasNext(), "empty if tree is empty");
+        Random random = new Random(43);
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            tree.add(new String(chars));
+        }
+
+        for (int radius = 0; radius <= 3; radius++) {
+            List<BKTree.SearchResult<CharSequence>> expected = tree.search("abcd", radius);
+            distanceCalls[0] = 0;
+            List<BKTree.SearchResult<CharSequence>> streamed = new ArrayList<>();
+            tree.searchStream("abcd", radius).forEach(streamed::add);
+            int fullCalls = distanceCalls[0];
+            assertEquals(expected.size(), streamed.size(), "same size at radius " + radius);
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i).getDistance(), streamed.get(i).getDistance(), "sorted by distance");
+
+            if (!expected.isEmpty() && radius > 0) {
+                distanceCalls[0] = 0;
+                assertEquals(expected.get(0).getDistance(),
+                        tree.searchStream("abcd", radius).findFirst().get().getDistance(), "closest first");
+                assertTrue(distanceCalls[0] < fullCalls, "first result without a full search at radius " + radius);
+            }
+        }
+        assertFalse(tree.searchIterator(null, 2).hasNext(), "no search when t is null");
+
+        Iterator<BKTree.SearchResult<CharSequence>> it = tree.searchIterator("abcd", 2);
+        tree.add("abcd");
+        assertThrows(ConcurrentModificationException.class, it::hasNext);
+    }
+
+    @Test
+    void bulkLoad() {
+        assertTrue(BKTree.bulkLoad(new ArrayList<CharSequence>(), distFunc).isEmpty(), "empty collection");
+        assertThrows(NullPointerException.class, () -> BKTree.bulkLoad(Arrays.asList("some", null), distFunc));
+
+        List<CharSequence> items = new ArrayList<>(Arrays.asList(testStrings));
+        items.add("some"); // Duplicate.
+        items.add(new StringBuffer("some")); // Same content, but a different item.
+        BKTree<CharSequence> tree = BKTree.bulkLoad(items, distFunc);
+        assertEquals(testStrings.length + 1, tree.size(), "duplicates added once");
+        for (String s : testStrings)
+            assertTrue(tree.contains(s), s + " is in tree");
+        assertEquals(4, tree.search("sort", 2).size(), "search finds loaded items");
+
+        Random random = new Random(41);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[3 + random.nextInt(5)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(8));
+            words.add(new String(chars));
+        }
+        Collections.sort(words); // Sorted like a dictionary file.
+        BKTree<CharSequence> added = new BKTree<>(distFunc);
+        added.addAll(words);
+        BKTree<CharSequence> loaded = BKTree.bulkLoad(words, distFunc);
+        assertEquals(added.size(), loaded.size(), "same items");
+        assertTrue(loaded.containsAll(added), "same items");
+        for (int q = 0; q < 20; q++) {
+            String query = words.get(random.nextInt(words.size()));
+            assertEquals(added.search(query, 2).size(), loaded.search(query, 2).size(), "same results for " + query);
+        }
+        assertTrue(loaded.add("zzzzzzzzzz"), "can add after loading");
+    }
+
+    @Test
+    void searchStats() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        SearchStats stats = new SearchStats();
+        tree.search("sort", 2, (item, distance) -> fail("empty tree"), stats);
+        assertEquals(1, stats.getSearches());
+        assertEquals(0, stats.getNodesVisited());
+
+        for (String s : testStrings)
+            tree.add(s);
+        stats.reset();
+        List<CharSequence> items = new ArrayList<>();
+        tree.search("sort", 2, (item, distance) -> items.add(item), stats);
+        assertEquals(3, items.size(), "same results as search");
+        assertEquals(3, stats.getResults(), "results counted");
+        assertEquals(stats.getNodesVisited(), stats.getDistanceCalls(), "one distance call per visited node");
+        assertTrue(stats.getNodesVisited() <= testStrings.length, "visits each node at most once");
+        assertEquals(testStrings.length, stats.getNodesVisited() + stats.getChildrenPruned(),
+                "every node is visited or pruned");
+
+        tree.search("salmon", 0, (item, distance) -> { }, stats);
+        assertEquals(2, stats.getSearches(), "searches add to stats");
+        assertEquals(4, stats.getResults(), "results add up");
+        assertTrue(stats.getPruningRatio() > 0 && stats.getPruningRatio() <= 1, "some children pruned");
+        assertThrows(NullPointerException.class, () -> tree.search("sort", 2, (item, distance) -> { }, null));
+
+        double pruningRatio = stats.getPruningRatio();
+        new BKTree<>(distFunc).search("sort", 2, (item, distance) -> { }, stats);
+        assertEquals(3, stats.getSearches(), "search of an empty tree counted");
+        assertEquals(pruningRatio, stats.getPruningRatio(), "no root to leave out of the children");
+        stats.reset();
+        new BKTree<>(distFunc).search("sort", 2, (item, distance) -> { }, stats);
+        assertEquals(0, stats.getPruningRatio(), "nothing visited or pruned");
+    }
+
+    @Test
+    void treeStats() {
+        TreeStats empty = new BKTree<CharSequence>(distFunc).treeStats();
+        assertEquals(0, empty.getNodeCount());
+        assertEquals(-1, empty.getHeight());
+
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        for (String s : testStrings)
+            tree.add(s);
+        // some has children same (1), soft (2) and salmon (4), and soft has children soda (2) and mole (3).
+        TreeStats stats = tree.treeStats();
+        assertEquals(testStrings.length, stats.getNodeCount(), "every node counted");
+        assertEquals(2, stats.getHeight());
+        assertArrayEquals(new long[]{1, 3, 2}, stats.getDepthHistogram(), "depths");
+        assertArrayEquals(new long[]{4, 0, 1, 1}, stats.getFanOutHistogram(), "fan-outs");
+        assertArrayEquals(new long[]{0, 1, 2, 1, 1}, stats.getEdgeHistogram(), "edges");
+        assertEquals(4, stats.getLeafCount());
+        assertEquals(7.0 / 6, stats.getAverageDepth(), 1e-9);
+
+        long edges = 0, fanOutTotal = 0;
+        for (long count : stats.getEdgeHistogram())
+            edges += count;
+        long[] fanOut = stats.getFanOutHistogram();
+        for (int i = 0; i < fanOut.length; i++)
+            fanOutTotal += i * fanOut[i];
+        assertEquals(testStrings.length - 1, edges, "one edge per child");
+        assertEquals(edges, fanOutTotal, "fan-outs add up to the edges");
+    }
+
+    @Test
+    void pivots() {
+        Random random = new Random(59);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            char[] chars = new char[2 + random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        BKTree<CharSequence> plain = new BKTree<>(distFunc);
+        BKTree<CharSequence> indexed = new BKTree<>(distFunc);
+        plain.addAll(words.subList(0, 3000));
+        indexed.addAll(words.subList(0, 3000));
+        List<CharSequence> pivots = BKTree.selectPivots(words.subList(0, 500), 4, distFunc);
+        assertEquals(4, pivots.size(), "pivot count");
+        indexed.setPivots(pivots);
+        assertEquals(pivots, indexed.getPivots());
+        plain.addAll(words.subList(3000, 4000)); // Added after indexing.
+        indexed.addAll(words.subList(3000, 4000));
+        plain.removeAll(words.subList(0, 1000)); // Leaves deleted nodes.
+        indexed.removeAll(words.subList(0, 1000));
+
+        SearchStats plainStats = new SearchStats(), indexedStats = new SearchStats();
+        for (int q = 0; q < 100; q++) {
+            String query = words.get(random.nextInt(words.size()));
+            for (int radius = 0; radius <= 3; radius++) {
+                Set<CharSequence> expected = new HashSet<>(), found = new HashSet<>();
+                plain.search(query, radius, (item, distance) -> expected.add(item), plainStats);
+                indexed.search(query, radius, (item, distance) -> found.add(item), indexedStats);
+                assertEquals(expected, found, "results for " + query + " within " + radius);
+                assertEquals(expected.size(), indexed.parallelSearch(query, radius).size(), "parallel results");
+            }
+        }
+        assertTrue(indexedStats.getDistanceCalls() < plainStats.getDistanceCalls(), "pivots save distance calls");
+
+        indexed.compact();
+        plain.compact();
+        for (int q = 0; q < 20; q++) {
+            String query = words.get(random.nextInt(words.size()));
+            assertEquals(plain.search(query, 2).size(), indexed.search(query, 2).size(), "results after compact");
+        }
+        indexed.setPivots(Collections.emptyList());
+        assertTrue(indexed.getPivots().isEmpty(), "pivots removed");
+        assertEquals(plain.search("abcd", 2).size(), indexed.search("abcd", 2).size(), "results without pivots");
+    }
+
     @Test
     void contains() {
         BKTree<CharSequence> tree = new BKTree<>(distFunc);
@@ -109,10 +447,259 @@ class BKTreeTest {
             tree.add(s);
         Iterator<CharSequence> iterator = tree.iterator();
         iterator.next(); iterator.next(); iterator.next();
-        iterator.remove();
-        assertEquals("soda", iterator.next());
+        iterator.remove(); // Removes soft, but keeps its node to reach soda and mole.
+        assertThrows(IllegalStateException.class, iterator::remove, "already removed");
         assertEquals("salmon", iterator.next());
+        assertEquals("soda", iterator.next());
         assertEquals("mole", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertFalse(tree.contains("soft"), "removed item not found");
+        assertEquals(2, tree.search("sort", 2).size(), "removed item not in results");
+        assertEquals(Arrays.asList("some", "same", "salmon", "soda", "mole"), new ArrayList<>(tree),
+                "iterator skips removed item");
+    }
+
+    @Test
+    void depthFirstIterator() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        assertFalse(tree.depthFirstIterator().hasNext(), "false if empty");
+        Collections.addAll(tree, testStrings);
+        List<CharSequence> visited = new ArrayList<>();
+        tree.depthFirstIterator().forEachRemaining(visited::add);
+        assertEquals(Arrays.asList("some", "same", "soft", "soda", "mole", "salmon"), visited,
+                "each child's subtree before the next child");
+
+        Iterator<CharSequence> iterator = tree.depthFirstIterator();
+        iterator.next();
+        iterator.next();
+        assertEquals("soft", iterator.next());
+        iterator.remove(); // Removes soft, but keeps its node to reach soda and mole.
+        assertEquals("soda", iterator.next(), "children of removed item still visited");
+        assertFalse(tree.contains("soft"));
+        assertEquals(new HashSet<>(Arrays.asList("some", "same", "soda", "mole", "salmon")), new HashSet<>(tree));
+
+        Iterator<CharSequence> modified = tree.depthFirstIterator();
+        tree.add("sort");
+        assertThrows(ConcurrentModificationException.class, modified::next, "fail fast");
+    }
+
+    @Test
+    void spliterator() {
+        Random random = new Random(59);
+        List<CharSequence> words = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            char[] chars = new char[3 + random.nextInt(5)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        BKTree<CharSequence> tree = BKTree.bulkLoad(words, distFunc);
+        assertSubtreeSizes(tree);
+        Set<CharSequence> expected = new HashSet<>(tree);
+
+        Spliterator<CharSequence> spliterator = tree.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.DISTINCT));
+        assertEquals(tree.size(), spliterator.estimateSize());
+        List<Spliterator<CharSequence>> parts = new ArrayList<>();
+        parts.add(spliterator);
+        for (int i = 0; i < parts.size() && parts.size() < 64; i++) { // Split every part until there are 64.
+            Spliterator<CharSequence> split;
+            while (parts.size() < 64 && (split = parts.get(i).trySplit()) != null)
+                parts.add(split);
+        }
+        assertEquals(64, parts.size(), "splits down to subtrees");
+        Set<CharSequence> found = new HashSet<>();
+        long largest = 0;
+        for (Spliterator<CharSequence> part : parts) {
+            long size = part.estimateSize();
+            largest = Math.max(largest, size);
+            int[] count = new int[1];
+            Consumer<CharSequence> action = item -> {
+                assertTrue(found.add(item), "no item in two parts");
+                count[0]++;
+            };
+            assertTrue(part.tryAdvance(action), "no empty parts");
+            assertEquals(size - 1, part.estimateSize(), "one fewer left");
+            part.forEachRemaining(action);
+            assertEquals(size, count[0], "exact sizes without removed nodes");
+        }
+        assertEquals(expected, found, "every item in one part");
+        assertTrue(largest < tree.size() / 4, "parts are smaller than the tree, was " + largest);
+
+        assertEquals(expected, tree.parallelStream().collect(Collectors.toSet()), "parallel stream");
+        assertEquals(tree.size(), tree.parallelStream().count());
+
+        tree.removeIf(word -> word.charAt(0) == 'a');
+        assertSubtreeSizes(tree);
+        Spliterator<CharSequence> withRemoved = tree.spliterator();
+        assertTrue(withRemoved.hasCharacteristics(Spliterator.SIZED), "the whole tree's size is known");
+        assertFalse(withRemoved.hasCharacteristics(Spliterator.SUBSIZED), "removed nodes make parts estimates");
+        expected.removeIf(word -> word.charAt(0) == 'a');
+        assertEquals(expected, tree.parallelStream().collect(Collectors.toSet()), "removed items skipped");
+        assertEquals(expected.size(), tree.parallelStream().count());
+
+        Spliterator<CharSequence> modified = tree.spliterator();
+        modified.tryAdvance(item -> { });
+        tree.add("sort");
+        assertThrows(ConcurrentModificationException.class, () -> modified.tryAdvance(item -> { }), "fail fast");
+    }
+
+    // Check that every node's subtree size counts itself and every node under it.
+    private static void assertSubtreeSizes(BKTree<CharSequence> tree) {
+        int nodeCount = 0;
+        Deque<BKTree.Node<CharSequence>> nextNodes = new ArrayDeque<>();
+        if (tree.rootNode() != null)
+            nextNodes.push(tree.rootNode());
+        while (!nextNodes.isEmpty()) {
+            BKTree.Node<CharSequence> node = nextNodes.pop();
+            int size = 1;
+            for (int i = 0; i < node.childCount; i++) {
+                size += node.children[i].subtreeSize;
+                nextNodes.push(node.children[i]);
+            }
+            assertEquals(size, node.subtreeSize, "subtree size of " + node.item);
+            nodeCount++;
+        }
+        assertEquals(tree.treeStats().getNodeCount(), nodeCount);
+    }
+
+    @Test
+    void iteratorRemoveCompacts() {
+        Random random = new Random(61);
+        List<CharSequence> words = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        for (boolean depthFirst : new boolean[]{false, true}) {
+            BKTree<CharSequence> tree = new BKTree<>(distFunc);
+            tree.addAll(words);
+            Set<CharSequence> expected = new HashSet<>(tree);
+            Iterator<CharSequence> iterator = depthFirst ? tree.depthFirstIterator() : tree.iterator();
+            for (int visited = 0, total = tree.size(); visited < total; visited++) {
+                CharSequence word = iterator.next();
+                if (visited % 4 != 0) { // Three quarters of the items.
+                    iterator.remove();
+                    expected.remove(word);
+                }
+            }
+            Iterator<CharSequence> reader = tree.iterator();
+            assertFalse(iterator.hasNext());
+            assertTrue(tree.treeStats().getDeletedCount() > 0, "not compacted by reading");
+            assertNotNull(reader.next(), "other iterators are not disturbed by reading");
+            CharSequence kept = expected.iterator().next();
+            assertTrue(tree.remove(kept));
+            expected.remove(kept);
+            assertEquals(0, tree.treeStats().getDeletedCount(), "compacted by the next remove");
+            assertEquals(expected, new HashSet<>(tree));
+            assertSubtreeSizes(tree);
+            assertTrue(tree.spliterator().hasCharacteristics(Spliterator.SUBSIZED), "no removed nodes left");
+
+            Iterator<CharSequence> unfinished = depthFirst ? tree.depthFirstIterator() : tree.iterator();
+            int removed = 0, total = expected.size();
+            while (removed <= total / 2) { // Just over half.
+                expected.remove(unfinished.next());
+                unfinished.remove();
+                removed++;
+            }
+            assertTrue(tree.treeStats().getDeletedCount() > 0, "not compacted while iterating");
+            assertTrue(tree.add("zzzz"), "add after an unfinished iteration");
+            expected.add("zzzz");
+            assertEquals(0, tree.treeStats().getDeletedCount(), "compacted by the next add");
+            assertEquals(expected, new HashSet<>(tree));
+            assertSubtreeSizes(tree);
+        }
+    }
+
+    @Test
+    void removeAllAndRetainAll() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        assertFalse(tree.removeAll(Arrays.asList("sort", "mold")), "nothing to remove");
+        assertTrue(tree.removeAll(Arrays.asList("some", "soda", "sort")));
+        assertEquals(testStrings.length - 2, tree.size());
+        assertFalse(tree.contains("some"));
+        assertTrue(tree.contains("soft"), "descendants of removed root still found");
+
+        assertTrue(tree.retainAll(Arrays.asList("soft", "mole", "sort")));
+        assertEquals(new HashSet<>(Arrays.asList("soft", "mole")), new HashSet<>(tree));
+        assertEquals(0, tree.treeStats().getDeletedCount(), "compacted once most nodes were deleted");
+        assertTrue(tree.add("some"), "removed item added again");
+        assertEquals(3, tree.size());
+
+        tree.clear();
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.treeStats().getNodeCount(), "clear drops every node");
+
+        Collections.addAll(tree, testStrings);
+        int[] calls = {0};
+        assertThrows(IllegalStateException.class, () -> tree.removeIf(item -> {
+            if (++calls[0] == 3)
+                throw new IllegalStateException();
+            return true;
+        }));
+        List<CharSequence> left = new ArrayList<>(tree);
+        assertEquals(testStrings.length - 2, left.size(), "items before the throw removed");
+        assertEquals(left.size(), tree.size(), "size agrees with iteration after the filter threw");
+        assertTrue(tree.removeAll(left));
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    void compact() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        assertTrue(tree.remove("soft"), "node with children removed");
+        assertEquals(1, tree.treeStats().getDeletedCount(), "node with children is only marked deleted");
+        assertTrue(tree.add("soft"), "deleted item revived");
+        assertTrue(tree.remove("soft"));
+        tree.compact();
+        TreeStats stats = tree.treeStats();
+        assertEquals(0, stats.getDeletedCount());
+        assertEquals(testStrings.length - 1, stats.getNodeCount());
+        assertEquals(2, tree.search("sort", 2).size(), "soda and some still found");
+
+        assertTrue(tree.remove("some"), "root removed");
+        tree.compact();
+        assertEquals(testStrings.length - 2, tree.treeStats().getNodeCount());
+        assertEquals(new HashSet<>(Arrays.asList("same", "mole", "soda", "salmon")), new HashSet<>(tree));
+    }
+
+    @Test
+    void searchesAreCorrectUnderChurn() {
+        Random random = new Random(53);
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Set<String> expected = new HashSet<>();
+        for (int round = 0; round < 20000; round++) {
+            char[] chars = new char[2 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(5));
+            String word = new String(chars);
+            if (random.nextInt(3) == 0)
+                assertEquals(expected.remove(word), tree.remove(word), "remove " + word);
+            else
+                assertEquals(expected.add(word), tree.add(word), "add " + word);
+
+            if (round % 1000 == 999) {
+                assertSubtreeSizes(tree);
+                assertEquals(expected.size(), tree.size(), "size");
+                assertEquals(expected, new HashSet<>(tree), "contents");
+                for (int radius = 0; radius <= 2; radius++) {
+                    Set<CharSequence> found = new HashSet<>();
+                    for (BKTree.SearchResult<CharSequence> result : tree.search(word, radius))
+                        assertTrue(found.add(result.getItem()), "no duplicate results");
+                    Set<CharSequence> matches = new HashSet<>();
+                    for (String item : expected) {
+                        if (distFunc.distance(item, word) <= radius)
+                            matches.add(item);
+                    }
+                    assertEquals(matches, found, "results for " + word + " within " + radius);
+                    assertEquals(matches.size(), tree.searchStream(word, radius).count(), "stream results");
+                }
+            }
+        }
     }
 
     @Test
@@ -0,0 +1,168 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void add() {
+        ConcurrentBKTree<CharSequence> tree = new ConcurrentBKTree<>(distFunc);
+        assertTrue(tree.add("some"), "first add");
+        assertFalse(tree.add("some"), "add equivalent");
+        assertTrue(tree.add(new StringBuffer("some")), "can add other CharSequence with same content");
+        assertTrue(tree.add("somb"), "add new object");
+        assertThrows(NullPointerException.class, () -> tree.add(null));
+    }
+
+    @Test
+    void search() {
+        ConcurrentBKTree<CharSequence> tree = new ConcurrentBKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        List<BKTree.SearchResult<CharSequence>> results = tree.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+        assertTrue(tree.search(null, 2).isEmpty(), "no search when t is null");
+    }
+
+    @Test
+    void removeAndReAdd() {
+        ConcurrentBKTree<CharSequence> tree = new ConcurrentBKTree<>(distFunc);
+        assertFalse(tree.remove("some"), "false if empty");
+        Collections.addAll(tree, testStrings);
+        assertFalse(tree.remove("sort"), "sort not in tree");
+        assertFalse(tree.remove(new Object()), "non CharSequence not in tree");
+
+        assertTrue(tree.remove("some"), "root node removed");
+        assertFalse(tree.remove("some"), "already removed");
+        assertFalse(tree.contains("some"), "removed item not found");
+        assertTrue(tree.contains("soft"), "descendants still found");
+        assertEquals(2, tree.search("sort", 2).size(), "removed item not in results");
+        assertEquals(testStrings.length - 1, tree.size());
+
+        assertTrue(tree.remove("same"), "leaf removed");
+        assertTrue(tree.add("same"), "leaf added again");
+        assertTrue(tree.add("some"), "deleted node revived");
+        assertEquals(new HashSet<>(Arrays.asList(testStrings)), new HashSet<>(tree), "iterator sees every item");
+    }
+
+    @Test
+    void concurrentAddsAreNotLost() throws Exception {
+        List<String> words = randomWords(20000, 3);
+        ConcurrentBKTree<CharSequence> tree = new ConcurrentBKTree<>(distFunc);
+        int threads = 8;
+        runConcurrently(threads, n -> {
+            for (int i = n; i < words.size(); i += threads)
+                assertTrue(tree.add(words.get(i)));
+        });
+
+        assertEquals(words.size(), tree.size(), "size");
+        for (String word : words)
+            assertTrue(tree.contains(word), word + " is in tree");
+    }
+
+    @Test
+    void searchesAreConsistentUnderContention() throws Exception {
+        List<String> stable = randomWords(4000, 5), churned = randomWords(4000, 6);
+        churned.removeAll(stable);
+        ConcurrentBKTree<CharSequence> tree = new ConcurrentBKTree<>(distFunc);
+        tree.addAll(stable);
+        String[] queries = stable.subList(0, 200).toArray(new String[0]);
+        Map<String, Set<CharSequence>> expected = new HashMap<>();
+        for (String query : queries)
+            expected.put(query, stableMatches(stable, query));
+
+        AtomicBoolean done = new AtomicBoolean();
+        int writers = 3, readers = 3;
+        runConcurrently(writers + readers, n -> {
+            if (n < writers) {
+                for (int round = 0; round < 3; round++) {
+                    for (int i = n; i < churned.size(); i += writers)
+                        tree.add(churned.get(i));
+                    for (int i = n; i < churned.size(); i += writers)
+                        assertTrue(tree.remove(churned.get(i)), "churned item removed");
+                }
+                done.set(true);
+            } else {
+                // Every stable item within the radius must be found, with no duplicates.
+                for (int i = n; !done.get() || i < queries.length; i++) {
+                    String query = queries[i % queries.length];
+                    Set<CharSequence> found = new HashSet<>();
+                    tree.search(query, 2, (item, distance) -> assertTrue(found.add(item), "duplicate " + item));
+                    assertTrue(found.containsAll(expected.get(query)), "stable matches of " + query);
+                }
+            }
+        });
+
+        assertEquals(stable.size(), tree.size(), "size after churn");
+        assertEquals(new HashSet<CharSequence>(stable), new HashSet<>(tree), "contents after churn");
+        for (String query : queries) {
+            Set<CharSequence> found = new HashSet<>();
+            for (BKTree.SearchResult<CharSequence> result : tree.search(query, 2))
+                found.add(result.getItem());
+            assertEquals(expected.get(query), found, "results after churn for " + query);
+        }
+    }
+
+    private static Set<CharSequence> stableMatches(List<String> words, String query) {
+        Set<CharSequence> matches = new HashSet<>();
+        for (String word : words) {
+            if (distFunc.distance(word, query) <= 2)
+                matches.add(word);
+        }
+        return matches;
+    }
+
+    private static List<String> randomWords(int count, long seed) {
+        Random random = new Random(seed);
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < count) {
+            char[] chars = new char[3 + random.nextInt(6)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(8));
+            words.add(new String(chars));
+        }
+        return new ArrayList<>(words);
+    }
+
+    private interface Worker {
+        void run(int n) throws Exception;
+    }
+
+    // Start all workers at once and rethrow the first failure.
+    private static void runConcurrently(int threads, Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int n = 0; n < threads; n++) {
+                int id = n;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    worker.run(id);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(60, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
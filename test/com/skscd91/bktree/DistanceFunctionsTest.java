@@ -2,6 +2,8 @@ package com.skscd91.bktree;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.*;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -69,4 +71,270 @@ class DistanceFunctionsTest {
         assertEquals(4, levenshteinDistance.distance("some", "salmon"),"'same' and 'salmon'");
     }
 
+    @Test
+    void bitHammingDistance() {
+        assertEquals(0, DistanceFunctions.bitHammingDistance().distance(5L, 5L), "same bits");
+        assertEquals(2, DistanceFunctions.bitHammingDistance().distance(0b0101L, 0b0110L), "two bits differ");
+        assertEquals(64, DistanceFunctions.bitHammingDistance().distance(0L, -1L), "every bit differs");
+
+        DistanceFunction<long[]> arrayDistance = DistanceFunctions.bitArrayHammingDistance();
+        assertEquals(65, arrayDistance.distance(new long[]{0, 1}, new long[]{-1, 0}), "summed over longs");
+        assertThrows(IllegalArgumentException.class, () -> arrayDistance.distance(new long[1], new long[2]));
+    }
+
+    @Test
+    void hammingDistanceBounded() {
+        DistanceFunction<CharSequence> hammingDistance = DistanceFunctions.hammingDistance();
+        assertEquals(1, hammingDistance.distance("same", "some", 1), "within bound");
+        assertEquals(2, hammingDistance.distance("same", "abcd", 1), "stops past bound");
+        assertThrows(IllegalArgumentException.class, () -> hammingDistance.distance("same", "sam", 4));
+    }
+
+    @Test
+    void levenshteinDistanceBounded() {
+        DistanceFunction<CharSequence> levenshteinDistance = DistanceFunctions.levenshteinDistance();
+        assertEquals(2, levenshteinDistance.distance("some", "soft", 2), "within bound");
+        assertEquals(4, levenshteinDistance.distance("some", "salmon", 4), "at bound");
+        assertEquals(2, levenshteinDistance.distance("same", "salmon", 1), "length difference past bound");
+        assertEquals(2, levenshteinDistance.distance("some", "TEST", 1), "past bound");
+
+        Random random = new Random(3);
+        for (int n = 0; n < 2000; n++) {
+            String left = randomWord(random), right = randomWord(random);
+            int exact = levenshteinDistance.distance(left, right);
+            int maxDistance = random.nextInt(6);
+            int bounded = levenshteinDistance.distance(left, right, maxDistance);
+            if (exact <= maxDistance)
+                assertEquals(exact, bounded, left + " and " + right);
+            else
+                assertTrue(bounded > maxDistance && bounded <= exact, left + " and " + right);
+        }
+
+        // Prepared queries and plain calls share the thread's buffers, so interleave them.
+        DistanceFunction<CharSequence> caseInsensitive = DistanceFunctions.levenshteinDistance(false);
+        PreparedQuery<CharSequence> query = caseInsensitive.prepare("Salmon");
+        for (int n = 0; n < 200; n++) {
+            String word = randomText(random, 40);
+            assertEquals(caseInsensitive.distance(new StringBuilder(word), "SALMON"), query.distanceTo(word, 40), word);
+        }
+    }
+
+    @Test
+    void myersLevenshteinDistance() {
+        DistanceFunction<CharSequence> myersDistance = DistanceFunctions.myersLevenshteinDistance();
+        assertEquals(0, myersDistance.distance("test", "test"));
+        assertEquals(4, myersDistance.distance("test", "TEST"));
+        assertEquals(4, myersDistance.distance("", "test"), "left empty");
+        assertEquals(4, myersDistance.distance("test", ""), "right empty");
+        assertEquals(2, myersDistance.distance("some", "soft"), "'some' and 'soft'");
+        assertEquals(4, myersDistance.distance("some", "salmon"), "'some' and 'salmon'");
+        assertEquals(0, DistanceFunctions.myersLevenshteinDistance(false).distance("test", "TEST"), "different case");
+    }
+
+    @Test
+    void myersLevenshteinDistanceMatchesLevenshtein() {
+        Random random = new Random(5);
+        for (boolean isCaseSensitive : new boolean[]{true, false}) {
+            DistanceFunction<CharSequence> levenshteinDistance = DistanceFunctions.levenshteinDistance(isCaseSensitive);
+            DistanceFunction<CharSequence> myersDistance = DistanceFunctions.myersLevenshteinDistance(isCaseSensitive);
+            for (int n = 0; n < 1000; n++) {
+                int maxLength = n % 2 == 0 ? 12 : 200; // Short words and ones spanning several 64 bit blocks.
+                String left = randomText(random, maxLength), right = randomText(random, maxLength);
+                int exact = levenshteinDistance.distance(left, right);
+                assertEquals(exact, myersDistance.distance(left, right), left + " and " + right);
+
+                int maxDistance = random.nextInt(exact + 2);
+                int bounded = myersDistance.prepare(right).distanceTo(left, maxDistance);
+                if (exact <= maxDistance)
+                    assertEquals(exact, bounded, left + " and " + right);
+                else
+                    assertTrue(bounded > maxDistance && bounded <= exact, left + " and " + right);
+            }
+            // Plain calls on short ASCII words use the thread's mask table rather than a pattern.
+            for (int n = 0; n < 1000; n++) {
+                String left = randomText(random, "abcdEF", 70), right = randomText(random, "abcdEF", 70);
+                int exact = levenshteinDistance.distance(left, right), maxDistance = random.nextInt(exact + 2);
+                int bounded = myersDistance.distance(left, right, maxDistance);
+                if (exact <= maxDistance)
+                    assertEquals(exact, bounded, left + " and " + right);
+                else
+                    assertTrue(bounded > maxDistance && bounded <= exact, left + " and " + right);
+            }
+        }
+    }
+
+    @Test
+    void caseInsensitiveMatchesUpperCaseComparison() {
+        // Includes characters whose upper case is another letter's: dotless i, long s, micro sign and titlecase dz.
+        String alphabet = "aAiIsS\u0131\u017f\u00b5\u039c\u01c5\u01c4\u00df";
+        Random random = new Random(11);
+        DistanceFunction<CharSequence> levenshteinDistance = DistanceFunctions.levenshteinDistance(false);
+        DistanceFunction<CharSequence> myersDistance = DistanceFunctions.myersLevenshteinDistance(false);
+        DistanceFunction<CharSequence> hammingDistance = DistanceFunctions.hammingDistance(false);
+        for (int n = 0; n < 2000; n++) {
+            String left = randomText(random, alphabet, 10), right = randomText(random, alphabet, 10);
+            int expected = upperCaseLevenshtein(left, right);
+            int maxDistance = random.nextInt(4);
+            assertEquals(expected, levenshteinDistance.distance(left, right), left + " and " + right);
+            assertEquals(expected, myersDistance.distance(left, right), left + " and " + right);
+            assertEquals(Math.min(expected, maxDistance + 1),
+                    Math.min(levenshteinDistance.prepare(right).distanceTo(left, maxDistance), maxDistance + 1),
+                    left + " and " + right + " within " + maxDistance);
+
+            char[] sameLength = new char[left.length()];
+            int mismatches = 0;
+            for (int i = 0; i < sameLength.length; i++) {
+                sameLength[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+                if (Character.toUpperCase(left.charAt(i)) != Character.toUpperCase(sameLength[i]))
+                    mismatches++;
+            }
+            String other = new String(sameLength);
+            assertEquals(mismatches, hammingDistance.distance(left, other), left + " and " + other);
+            assertEquals(mismatches, hammingDistance.prepare(other).distanceTo(left, Integer.MAX_VALUE),
+                    left + " and " + other + " prepared");
+        }
+        assertThrows(IllegalArgumentException.class, () -> hammingDistance.prepare("same").distanceTo("sam", 4));
+    }
+
+    // Levenshtein distance comparing the upper case of each pair of characters, as a reference.
+    private static int upperCaseLevenshtein(String left, String right) {
+        int[][] matrix = new int[left.length() + 1][right.length() + 1];
+        for (int i = 0; i <= left.length(); i++)
+            matrix[i][0] = i;
+        for (int j = 0; j <= right.length(); j++)
+            matrix[0][j] = j;
+        for (int i = 1; i <= left.length(); i++) {
+            for (int j = 1; j <= right.length(); j++) {
+                boolean same = Character.toUpperCase(left.charAt(i - 1)) == Character.toUpperCase(right.charAt(j - 1));
+                matrix[i][j] = Math.min(Math.min(matrix[i - 1][j], matrix[i][j - 1]) + 1,
+                        matrix[i - 1][j - 1] + (same ? 0 : 1));
+            }
+        }
+        return matrix[left.length()][right.length()];
+    }
+
+    @Test
+    void damerauLevenshteinDistance() {
+        DistanceFunction<CharSequence> damerauDistance = DistanceFunctions.damerauLevenshteinDistance();
+        assertEquals(0, damerauDistance.distance("test", "test"));
+        assertEquals(4, damerauDistance.distance("", "test"), "left empty");
+        assertEquals(4, damerauDistance.distance("test", ""), "right empty");
+        assertEquals(1, damerauDistance.distance("soem", "some"), "adjacent swap");
+        assertEquals(2, damerauDistance.distance("ca", "abc"), "swap then insert, which alignment alone misses");
+        assertEquals(2, damerauDistance.distance("some", "salmon", 1), "length difference past bound");
+        assertEquals(0, DistanceFunctions.damerauLevenshteinDistance(false).distance("SOME", "some"), "different case");
+
+        Random random = new Random(13);
+        for (int n = 0; n < 2000; n++) {
+            String a = randomText(random, 7), b = randomText(random, 7), c = randomText(random, 7);
+            int ab = damerauDistance.distance(a, b);
+            assertEquals(referenceDamerau(a, b), ab, a + " and " + b);
+            assertEquals(ab, damerauDistance.distance(b, a), "symmetric");
+            assertTrue(damerauDistance.distance(a, c) <= ab + damerauDistance.distance(b, c),
+                    "triangle inequality for " + a + ", " + b + " and " + c);
+            int maxDistance = random.nextInt(5), bounded = damerauDistance.distance(a, b, maxDistance);
+            if (ab <= maxDistance)
+                assertEquals(ab, bounded, "within bound for " + a + " and " + b);
+            else
+                assertTrue(bounded > maxDistance && bounded <= ab, "past bound for " + a + " and " + b);
+        }
+        String longText = randomText(random, 300);
+        assertEquals(1, damerauDistance.distance(longText + "ab", longText + "ba"), "larger than the scratch buffers");
+        assertEquals(1, damerauDistance.distance(longText + "ab", longText + "ba", 1), "banded");
+        assertTrue(damerauDistance.distance(longText, new StringBuilder(longText).reverse(), 2) > 2, "cut off");
+    }
+
+    @Test
+    void weightedLevenshteinDistance() {
+        // Substituting a vowel for a vowel costs 1, anything else 2, and inserting or deleting costs 2.
+        SubstitutionCost vowels = (a, b) -> "aeiou".indexOf(a) >= 0 && "aeiou".indexOf(b) >= 0 ? 1 : 2;
+        DistanceFunction<CharSequence> weighted = DistanceFunctions.weightedLevenshteinDistance(2, vowels);
+        assertEquals(0, weighted.distance("some", "some"));
+        assertEquals(1, weighted.distance("same", "some"), "vowel for vowel");
+        assertEquals(2, weighted.distance("some", "sole"), "consonant");
+        assertEquals(8, weighted.distance("", "test"), "left empty");
+        assertEquals(4, weighted.distance("same", "salmon", 1), "length difference past bound");
+        assertThrows(IllegalArgumentException.class, () -> DistanceFunctions.weightedLevenshteinDistance(0, vowels));
+        assertThrows(IllegalArgumentException.class, () -> DistanceFunctions.weightedLevenshteinDistance(-1, vowels));
+        assertThrows(IllegalArgumentException.class,
+                () -> DistanceFunctions.weightedLevenshteinDistance(1, (a, b) -> -1).distance("some", "same"),
+                "negative substitution cost");
+
+        DistanceFunction<CharSequence> unit = DistanceFunctions.weightedLevenshteinDistance(1, (a, b) -> 1);
+        DistanceFunction<CharSequence> levenshteinDistance = DistanceFunctions.levenshteinDistance();
+        Random random = new Random(17);
+        for (int n = 0; n < 2000; n++) {
+            String left = randomWord(random), right = randomWord(random);
+            int exact = levenshteinDistance.distance(left, right);
+            assertEquals(exact, unit.distance(left, right), "unit costs are Levenshtein for " + left + " and " + right);
+            int maxDistance = random.nextInt(4);
+            int bounded = weighted.distance(left, right, maxDistance), full = weighted.distance(left, right);
+            if (full <= maxDistance)
+                assertEquals(full, bounded, left + " and " + right);
+            else
+                assertTrue(bounded > maxDistance && bounded <= full, left + " and " + right);
+        }
+    }
+
+    @Test
+    void searchByDamerauLevenshteinDistance() {
+        DistanceFunction<CharSequence> damerauDistance = DistanceFunctions.damerauLevenshteinDistance();
+        Random random = new Random(19);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            words.add(randomText(random, 8));
+        BKTree<CharSequence> tree = new BKTree<>(damerauDistance);
+        tree.addAll(words);
+        Set<String> distinct = new HashSet<>(words);
+        for (int q = 0; q < 30; q++) {
+            String query = randomText(random, 8);
+            int radius = q % 3;
+            long expected = distinct.stream().filter(word -> damerauDistance.distance(word, query) <= radius).count();
+            assertEquals(expected, tree.search(query, radius).size(), "results for " + query + " within " + radius);
+        }
+    }
+
+    // Damerau-Levenshtein distance as the fewest edits over every way to split both words, as a reference.
+    private static int referenceDamerau(String left, String right) {
+        int n = left.length(), m = right.length();
+        int[][] d = new int[n + 1][m + 1];
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; j <= m; j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                    continue;
+                }
+                d[i][j] = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+                        d[i - 1][j - 1] + (left.charAt(i - 1) == right.charAt(j - 1) ? 0 : 1));
+                // Swap left[k] with left[i - 1] and right[l] with right[j - 1], editing everything between them.
+                for (int k = 0; k < i - 1; k++) {
+                    for (int l = 0; l < j - 1; l++) {
+                        if (left.charAt(k) == right.charAt(j - 1) && left.charAt(i - 1) == right.charAt(l))
+                            d[i][j] = Math.min(d[i][j], d[k][l] + (i - k - 2) + 1 + (j - l - 2));
+                    }
+                }
+            }
+        }
+        return d[n][m];
+    }
+
+    // Text mixing letters of both cases with a few non-ASCII characters.
+    private static String randomText(Random random, int maxLength) {
+        return randomText(random, "abAB\u00e9\u00c9\u03b1", maxLength);
+    }
+
+    private static String randomText(Random random, String alphabet, int maxLength) {
+        char[] chars = new char[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        return new String(chars);
+    }
+
+    private static String randomWord(Random random) {
+        char[] chars = new char[random.nextInt(9)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('a' + random.nextInt(4));
+        return new String(chars);
+    }
+
 }
\ No newline at end of file
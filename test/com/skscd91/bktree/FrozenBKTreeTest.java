@@ -0,0 +1,99 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrozenBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void search() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        FrozenBKTree<CharSequence> frozen = tree.freeze();
+
+        List<BKTree.SearchResult<CharSequence>> results = frozen.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+        assertTrue(frozen.search(null, 2).isEmpty(), "no search when t is null");
+
+        tree.add("sort");
+        assertEquals(3, frozen.search("sort", 2).size(), "snapshot unchanged by later adds");
+    }
+
+    @Test
+    void containsAndIterator() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        FrozenBKTree<CharSequence> frozen = tree.freeze();
+
+        assertEquals(tree.size(), frozen.size(), "size");
+        for (String s : testStrings)
+            assertTrue(frozen.contains(s), s + " is in tree");
+        assertFalse(frozen.contains("sort"), "sort not in tree");
+        assertFalse(frozen.contains(null), "null not in tree");
+        assertFalse(frozen.contains(new Object()), "non CharSequence not in tree");
+        assertEquals(new ArrayList<>(tree), new ArrayList<>(frozen), "same breadth first order");
+        assertThrows(UnsupportedOperationException.class, () -> frozen.add("sort"), "read-only");
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove("some"), "read-only");
+
+        FrozenBKTree<CharSequence> empty = new BKTree<>(distFunc).freeze();
+        assertEquals(0, empty.size());
+        assertFalse(empty.iterator().hasNext(), "no items");
+        assertTrue(empty.search("sort", 2).isEmpty(), "no results");
+        assertFalse(empty.contains("sort"));
+    }
+
+    @Test
+    void removedItems() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        tree.remove("some"); // Root, kept to reach its children.
+        tree.remove("soft");
+        FrozenBKTree<CharSequence> frozen = tree.freeze();
+
+        assertEquals(testStrings.length - 2, frozen.size(), "size");
+        assertFalse(frozen.contains("some"), "removed item not found");
+        assertTrue(frozen.contains("soda"), "descendants of removed items found");
+        assertEquals(1, frozen.search("sort", 2).size(), "removed items not in results");
+        assertEquals(new HashSet<>(tree), new HashSet<>(frozen), "iterator skips removed items");
+    }
+
+    @Test
+    void matchesTree() {
+        Random random = new Random(71);
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        List<CharSequence> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        tree.addAll(words);
+        tree.removeIf(word -> word.charAt(0) == 'a');
+        FrozenBKTree<CharSequence> frozen = tree.freeze();
+        tree.setPivots(BKTree.selectPivots(words, 4, distFunc));
+        FrozenBKTree<CharSequence> frozenWithPivots = tree.freeze();
+        assertEquals(tree.getPivots(), frozenWithPivots.getPivots(), "pivots kept");
+
+        for (int q = 0; q < 50; q++) {
+            String query = "abcdef".substring(q % 3, 3 + q % 4);
+            int radius = q % 4;
+            List<BKTree.SearchResult<CharSequence>> expected = tree.search(query, radius);
+            for (FrozenBKTree<CharSequence> snapshot : Arrays.asList(frozen, frozenWithPivots)) {
+                List<BKTree.SearchResult<CharSequence>> results = snapshot.search(query, radius);
+                assertEquals(expected.size(), results.size(), "results for " + query + " within " + radius);
+                for (int i = 0; i < results.size(); i++)
+                    assertEquals(expected.get(i).getDistance(), results.get(i).getDistance(), "sorted by distance");
+            }
+        }
+        for (CharSequence word : words)
+            assertEquals(tree.contains(word), frozen.contains(word), word + " found the same way");
+    }
+}
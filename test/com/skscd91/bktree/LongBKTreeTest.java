@@ -0,0 +1,95 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBKTreeTest {
+
+    @Test
+    void add() {
+        LongBKTree tree = new LongBKTree();
+        assertTrue(tree.add(0xF0L), "first add");
+        assertFalse(tree.add(0xF0L), "add equivalent");
+        assertTrue(tree.add(0xF1L), "add new item");
+        assertTrue(tree.add(-1L), "add all bits set");
+        assertEquals(3, tree.size());
+        assertTrue(tree.contains(0xF1L));
+        assertFalse(tree.contains(0xF3L));
+        assertThrows(IllegalArgumentException.class, () -> tree.add(new long[]{1, 2}), "wrong width");
+        assertThrows(IllegalArgumentException.class, () -> new LongBKTree(2).add(1L), "long needs width 1");
+        assertThrows(IllegalArgumentException.class, () -> new LongBKTree(0));
+    }
+
+    @Test
+    void search() {
+        LongBKTree tree = new LongBKTree();
+        tree.add(0b0000L);
+        tree.add(0b0001L);
+        tree.add(0b0011L);
+        tree.add(0b0111L);
+        List<BKTree.SearchResult<Long>> results = tree.search(0b0010L, 1);
+        assertEquals(2, results.size(), "result size");
+        assertEquals(1, results.get(0).getDistance());
+        assertEquals(1, results.get(1).getDistance());
+
+        long[] sum = new long[1];
+        tree.search(0b0000L, 64, (item, distance) -> sum[0] += item);
+        assertEquals(0b1011L, sum[0], "every item found");
+        assertTrue(new LongBKTree().search(1L, 64).isEmpty(), "empty tree");
+    }
+
+    @Test
+    void matchesBKTree() {
+        Random random = new Random(61);
+        LongBKTree tree = new LongBKTree();
+        BKTree<Long> expected = new BKTree<>(DistanceFunctions.bitHammingDistance());
+        long base = random.nextLong();
+        for (int i = 0; i < 5000; i++) {
+            long item = base ^ random.nextLong() & random.nextLong() & random.nextLong(); // Near base.
+            assertEquals(expected.add(item), tree.add(item), "add " + item);
+        }
+        assertEquals(expected.size(), tree.size(), "size");
+        for (int q = 0; q < 50; q++) {
+            long query = base ^ random.nextLong() & random.nextLong() & random.nextLong();
+            for (int radius : new int[]{0, 4, 8, 16}) {
+                List<BKTree.SearchResult<Long>> expectedResults = expected.search(query, radius);
+                List<BKTree.SearchResult<Long>> results = tree.search(query, radius);
+                assertEquals(expectedResults.size(), results.size(), "results within " + radius);
+                for (int i = 0; i < results.size(); i++)
+                    assertEquals(expectedResults.get(i).getDistance(), results.get(i).getDistance(), "sorted by distance");
+            }
+        }
+    }
+
+    @Test
+    void wideFingerprints() {
+        Random random = new Random(67);
+        LongBKTree tree = new LongBKTree(2);
+        BKTree<long[]> expected = new BKTree<>(DistanceFunctions.bitArrayHammingDistance());
+        List<long[]> items = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long[] item = {random.nextLong() & random.nextLong(), random.nextLong() & random.nextLong()};
+            items.add(item);
+            tree.add(item);
+            expected.add(item);
+        }
+        assertTrue(tree.contains(items.get(7).clone()), "compared by content");
+        for (int q = 0; q < 20; q++) {
+            long[] query = items.get(random.nextInt(items.size()));
+            List<BKTree.SearchResult<long[]>> results = tree.search(query, 40);
+            assertEquals(expected.search(query, 40).size(), results.size(), "results");
+            assertArrayEquals(query, results.get(0).getItem(), "item itself is closest");
+        }
+
+        byte[] bytes = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        assertTrue(tree.add(bytes));
+        assertTrue(tree.contains(new long[]{0x0102030405060708L, 0x090A0B0C0D0E0F10L}), "big-endian bytes");
+        List<BKTree.SearchResult<byte[]>> byteResults = tree.search(bytes, 0);
+        assertEquals(1, byteResults.size());
+        assertArrayEquals(bytes, byteResults.get(0).getItem(), "bytes round trip");
+        assertThrows(IllegalArgumentException.class, () -> tree.add(new byte[15]), "wrong byte width");
+    }
+}
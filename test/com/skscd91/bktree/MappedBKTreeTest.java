@@ -0,0 +1,161 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @TempDir
+    Path directory;
+
+    private MappedBKTree<CharSequence> writeAndOpen(BKTree<CharSequence> tree) throws IOException {
+        Path path = directory.resolve("tree.bkt");
+        MappedBKTree.write(tree, ItemCodecs.utf8(), path);
+        return MappedBKTree.open(path, ItemCodecs.utf8(), distFunc);
+    }
+
+    @Test
+    void search() throws IOException {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        MappedBKTree<CharSequence> mapped = writeAndOpen(tree);
+
+        List<BKTree.SearchResult<CharSequence>> results = mapped.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+        assertTrue(mapped.search(null, 2).isEmpty(), "no search when t is null");
+    }
+
+    @Test
+    void containsAndIterator() throws IOException {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        tree.add("söft"); // Not ASCII.
+        MappedBKTree<CharSequence> mapped = writeAndOpen(tree);
+
+        assertEquals(tree.size(), mapped.size(), "size");
+        for (CharSequence s : tree)
+            assertTrue(mapped.contains(s), s + " is in tree");
+        assertFalse(mapped.contains("sort"), "sort not in tree");
+        assertFalse(mapped.contains(null), "null not in tree");
+        assertFalse(mapped.contains(new Object()), "non CharSequence not in tree");
+
+        Set<CharSequence> iterated = new HashSet<>(mapped);
+        assertEquals(new HashSet<>(tree), iterated, "iterator visits every item");
+        assertThrows(UnsupportedOperationException.class, () -> mapped.add("sort"), "read-only");
+    }
+
+    @Test
+    void removedItems() throws IOException {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        tree.remove("some"); // Root, kept to reach its children.
+        tree.remove("soft");
+        MappedBKTree<CharSequence> mapped = writeAndOpen(tree);
+
+        assertEquals(testStrings.length - 2, mapped.size(), "size");
+        assertFalse(mapped.contains("some"), "removed item not found");
+        assertTrue(mapped.contains("soda"), "descendants of removed items found");
+        assertEquals(1, mapped.search("sort", 2).size(), "removed items not in results");
+        assertEquals(new HashSet<>(tree), new HashSet<>(mapped), "iterator skips removed items");
+    }
+
+    @Test
+    void matchesTree() throws IOException {
+        Random random = new Random(43);
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            tree.add(new String(chars));
+        }
+        MappedBKTree<CharSequence> mapped = writeAndOpen(tree);
+        for (int q = 0; q < 50; q++) {
+            String query = "abcdef".substring(0, 3 + q % 4);
+            int radius = q % 4;
+            assertEquals(tree.search(query, radius).size(), mapped.search(query, radius).size(),
+                    "results for " + query + " within " + radius);
+        }
+
+        // Visited items are decoded into one reused view, including characters of two to four bytes.
+        String alphabet = "a\u00e9\u03b1\u20ac\ud83d\ude00";
+        tree.clear();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 3 + random.nextInt(4); j > 0; j--) {
+                int c = random.nextInt(alphabet.length() - 1);
+                word.append(alphabet, c, Character.isHighSurrogate(alphabet.charAt(c)) ? c + 2 : c + 1);
+            }
+            tree.add(word.toString());
+        }
+        mapped = writeAndOpen(tree);
+        for (int q = 0; q < 50; q++) {
+            String query = alphabet.substring(0, 3 + q % 4);
+            int radius = q % 4;
+            List<BKTree.SearchResult<CharSequence>> expected = tree.search(query, radius);
+            List<BKTree.SearchResult<CharSequence>> results = mapped.search(query, radius);
+            assertEquals(expected.size(), results.size(), "results for " + query + " within " + radius);
+            Set<CharSequence> items = new HashSet<>();
+            for (BKTree.SearchResult<CharSequence> result : results)
+                items.add(result.getItem());
+            assertEquals(expected.size(), items.size(), "results are kept apart from the reused view");
+            for (BKTree.SearchResult<CharSequence> result : expected)
+                assertTrue(items.contains(result.getItem()), result.getItem() + " found");
+        }
+    }
+
+    @Test
+    void frozenAndToBKTree() throws IOException {
+        Random random = new Random(47);
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[3 + random.nextInt(4)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            tree.add(new String(chars));
+        }
+        tree.removeIf(word -> word.charAt(0) == 'a');
+        Path path = directory.resolve("frozen.bkt");
+        MappedBKTree.write(tree.freeze(), ItemCodecs.utf8(), path);
+        MappedBKTree<CharSequence> mapped = MappedBKTree.open(path, ItemCodecs.utf8(), distFunc);
+        BKTree<CharSequence> loaded = mapped.toBKTree();
+
+        assertEquals(tree.size(), mapped.size(), "size");
+        assertEquals(tree.size(), loaded.size(), "size");
+        assertEquals(new ArrayList<>(tree), new ArrayList<>(loaded), "same shape, so same breadth first order");
+        assertEquals(tree.treeStats().toString(), loaded.treeStats().toString(), "same removed nodes");
+        for (int q = 0; q < 50; q++) {
+            String query = "abcdef".substring(q % 3, 3 + q % 4);
+            int radius = q % 4;
+            assertEquals(tree.search(query, radius).size(), mapped.search(query, radius).size(),
+                    "results for " + query + " within " + radius);
+        }
+
+        assertTrue(loaded.add("zzzz"), "loaded tree can be changed");
+        assertTrue(loaded.remove("zzzz"));
+        assertTrue(writeAndOpen(new BKTree<>(distFunc)).toBKTree().isEmpty(), "empty tree");
+    }
+
+    @Test
+    void emptyAndInvalid() throws IOException {
+        MappedBKTree<CharSequence> mapped = writeAndOpen(new BKTree<>(distFunc));
+        assertEquals(0, mapped.size());
+        assertFalse(mapped.iterator().hasNext(), "no items");
+        assertTrue(mapped.search("sort", 2).isEmpty(), "no results");
+
+        Path notTree = directory.resolve("not-a-tree");
+        Files.write(notTree, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        assertThrows(IOException.class, () -> MappedBKTree.open(notTree, ItemCodecs.utf8(), distFunc));
+    }
+}
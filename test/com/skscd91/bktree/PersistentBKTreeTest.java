@@ -0,0 +1,158 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @TempDir
+    Path directory;
+
+    private PersistentBKTree<CharSequence> open(int syncEvery) throws IOException {
+        return PersistentBKTree.open(directory, ItemCodecs.utf8(), distFunc, syncEvery);
+    }
+
+    private List<Path> logs() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".wal")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void reopenReplaysLog() throws IOException {
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            Collections.addAll(tree, testStrings);
+            assertFalse(tree.add("some"), "add equivalent");
+            assertTrue(tree.remove("soft"));
+            assertFalse(tree.remove("sort"), "not in tree");
+            Iterator<CharSequence> iterator = tree.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().equals("mole"))
+                    iterator.remove();
+            }
+            assertEquals(2, tree.search("sort", 2).size(), "searches the tree");
+        }
+
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            assertEquals(new HashSet<>(Arrays.asList("some", "same", "soda", "salmon")), new HashSet<>(tree),
+                    "adds and removes replayed");
+            tree.clear();
+            tree.add("sort");
+        }
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            assertEquals(Collections.singleton("sort"), new HashSet<>(tree), "clear replayed");
+        }
+
+        PersistentBKTree<CharSequence> closed = open(1);
+        closed.close();
+        assertThrows(IllegalStateException.class, () -> closed.add("sort"), "closed");
+        assertThrows(IllegalArgumentException.class, () -> open(-1));
+    }
+
+    @Test
+    void tornTail() throws IOException {
+        try (PersistentBKTree<CharSequence> tree = open(1)) {
+            Collections.addAll(tree, testStrings);
+        }
+        Path log = logs().get(0);
+        long size = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3); // Tear the last record.
+        }
+
+        try (PersistentBKTree<CharSequence> tree = open(1)) {
+            assertEquals(testStrings.length - 1, tree.size(), "torn record dropped");
+            assertFalse(tree.contains("salmon"));
+            tree.add("salmon");
+        }
+        try (PersistentBKTree<CharSequence> tree = open(1)) {
+            assertEquals(new HashSet<>(Arrays.asList(testStrings)), new HashSet<>(tree), "appended after the tear");
+        }
+
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 2] ^= 1; // Corrupt the last record's checksum.
+        Files.write(log, bytes);
+        try (PersistentBKTree<CharSequence> tree = open(1)) {
+            assertEquals(testStrings.length - 1, tree.size(), "corrupt record dropped");
+        }
+    }
+
+    @Test
+    void compaction() throws IOException {
+        Random random = new Random(53);
+        Set<CharSequence> expected = new HashSet<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (PersistentBKTree<CharSequence> tree = open(64)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    char[] chars = new char[3 + random.nextInt(3)];
+                    for (int j = 0; j < chars.length; j++)
+                        chars[j] = (char) ('a' + random.nextInt(5));
+                    String word = new String(chars);
+                    if (random.nextInt(4) == 0) {
+                        tree.remove(word);
+                        expected.remove(word);
+                    } else {
+                        tree.add(word);
+                        expected.add(word);
+                    }
+                }
+                tree.compactAsync(executor); // Changes go on while the snapshot is written.
+            }
+            tree.add("sort");
+            expected.add("sort");
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(Files.exists(directory.resolve("snapshot.bkt")), "snapshot written");
+        assertEquals(1, logs().size(), "compacted logs deleted");
+
+        try (PersistentBKTree<CharSequence> tree = open(64)) {
+            assertEquals(expected, new HashSet<>(tree), "snapshot and log replayed");
+            tree.compact();
+            assertEquals(1, logs().size(), "compacted logs deleted");
+        }
+        try (PersistentBKTree<CharSequence> tree = open(64)) {
+            assertEquals(expected, new HashSet<>(tree), "snapshot alone");
+        }
+    }
+
+    @Test
+    void replayAfterSnapshotIsIdempotent() throws IOException {
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            Collections.addAll(tree, testStrings);
+            tree.remove("soft");
+            tree.add("soft");
+            tree.remove("mole");
+        }
+        Path log = logs().get(0);
+        byte[] bytes = Files.readAllBytes(log);
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            tree.compact();
+        }
+        Files.write(log, bytes); // As if the compaction crashed before deleting the log.
+
+        try (PersistentBKTree<CharSequence> tree = open(0)) {
+            Set<CharSequence> expected = new HashSet<>(Arrays.asList(testStrings));
+            expected.remove("mole");
+            assertEquals(expected, new HashSet<>(tree), "log replayed over the snapshot it is in");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchCacheTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void search() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        SearchCache<CharSequence> cache = new SearchCache<>(tree, 10);
+        List<BKTree.SearchResult<CharSequence>> results = cache.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertSame(results, cache.search("sort", 2), "second search is cached");
+        assertEquals(1, cache.search("sort", 1).size(), "radius is part of the key");
+        assertTrue(cache.search(null, 2).isEmpty(), "no search when t is null");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new SearchCache<>(tree, 0));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        SearchCache<CharSequence> cache = new SearchCache<>(tree, 2);
+        cache.search("sort", 1);
+        cache.search("sole", 1);
+        cache.search("sort", 1); // Now "sole" is the least recently used.
+        cache.search("salt", 1);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        long misses = cache.getMissCount();
+        cache.search("sort", 1);
+        assertEquals(misses, cache.getMissCount(), "recently used result kept");
+        cache.search("sole", 1);
+        assertEquals(misses + 1, cache.getMissCount(), "least recently used result evicted");
+    }
+
+    @Test
+    void addAndRemoveUpdateCachedResults() {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        SearchCache<CharSequence> cache = new SearchCache<>(tree, 10);
+        cache.search("sort", 2);
+        cache.search("salmon", 0);
+
+        assertTrue(cache.add("sort"));
+        assertFalse(cache.add("sort"), "already in tree");
+        assertTrue(cache.remove("soda"));
+        assertFalse(cache.remove("soda"), "already removed");
+        assertEquals(2, cache.size(), "cached results kept");
+
+        long misses = cache.getMissCount();
+        assertEquals(tree.search("sort", 2).size(), cache.search("sort", 2).size(), "results match the tree");
+        assertEquals("sort", cache.search("sort", 2).get(0).getItem(), "added item sorted first");
+        assertEquals(1, cache.search("salmon", 0).size(), "unaffected result");
+        assertEquals(misses, cache.getMissCount(), "answered from the cache");
+
+        tree.add("sorts"); // Modified without the cache.
+        assertEquals(tree.search("sort", 2).size(), cache.search("sort", 2).size(), "results match the tree");
+        assertEquals(misses + 1, cache.getMissCount(), "cache cleared");
+    }
+}
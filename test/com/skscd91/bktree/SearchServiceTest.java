@@ -0,0 +1,115 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchServiceTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void search() throws Exception {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SearchService<CharSequence> service = new SearchService<>(tree::search, executor);
+            List<BKTree.SearchResult<CharSequence>> results = service.search("sort", 2).get();
+            assertEquals(3, results.size(), "result size");
+            assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+            assertTrue(service.search(null, 2).get().isEmpty(), "no search when t is null");
+            assertEquals(1, service.getSearchCount());
+            assertEquals(0, service.getPendingCount(), "finished searches forgotten");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void coalescesIdenticalSearches() throws Exception {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            SearchService<CharSequence> service = new SearchService<>((t, radius) -> {
+                awaitUninterruptibly(release);
+                return tree.search(t, radius);
+            }, executor);
+            List<CompletableFuture<List<BKTree.SearchResult<CharSequence>>>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+                futures.add(service.search(new StringBuilder("so").append("rt").toString(), 2));
+            CompletableFuture<List<BKTree.SearchResult<CharSequence>>> other = service.search("sort", 1);
+            release.countDown();
+
+            for (CompletableFuture<List<BKTree.SearchResult<CharSequence>>> future : futures)
+                assertSame(futures.get(0).get(), future.get(), "shared result list");
+            assertEquals(1, other.get().size(), "different radius not coalesced");
+            assertEquals(2, service.getSearchCount(), "one traversal per distinct search");
+            assertEquals(9, service.getCoalescedCount());
+
+            service.search("sort", 2).get();
+            assertEquals(3, service.getSearchCount(), "finished search not reused");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void deadlinesAndSkippedSearches() throws Exception {
+        BKTree<CharSequence> tree = new BKTree<>(distFunc);
+        Collections.addAll(tree, testStrings);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SearchService<CharSequence> service = new SearchService<>((t, radius) -> {
+                if (t.equals("slow"))
+                    awaitUninterruptibly(release);
+                return tree.search(t, radius);
+            }, executor);
+            CompletableFuture<List<BKTree.SearchResult<CharSequence>>> slow = service.search("slow", 1);
+            CompletableFuture<List<BKTree.SearchResult<CharSequence>>> queued = service.search("sort", 2, 20, TimeUnit.MILLISECONDS);
+            ExecutionException timedOut = assertThrows(ExecutionException.class, queued::get, "deadline passed");
+            assertTrue(timedOut.getCause() instanceof TimeoutException);
+
+            CompletableFuture<List<BKTree.SearchResult<CharSequence>>> cancelled = service.search("mold", 1);
+            assertTrue(cancelled.cancel(false));
+            release.countDown();
+            assertTrue(slow.get().isEmpty(), "slow search finishes");
+            assertEquals(3, service.search("sort", 2, 1, TimeUnit.SECONDS).get().size(), "new search after skip");
+            assertEquals(2, service.getSkippedCount(), "abandoned searches skipped");
+            assertEquals(2, service.getSearchCount(), "only slow and the last search traversed");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void rejectedAndFailedSearches() {
+        SearchService<CharSequence> rejecting = new SearchService<>((t, radius) -> Collections.emptyList(), command -> {
+            throw new RejectedExecutionException();
+        });
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> rejecting.search("sort", 1).get());
+        assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+        assertEquals(0, rejecting.getPendingCount());
+
+        SearchService<CharSequence> failing = new SearchService<>((t, radius) -> {
+            throw new IllegalStateException();
+        }, Runnable::run);
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> failing.search("sort", 1).get());
+        assertTrue(failed.getCause() instanceof IllegalStateException);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void addContainsAndRemove() {
+        ShardedBKTree<CharSequence> tree = ShardedBKTree.byLength(distFunc);
+        assertTrue(tree.add("some"), "first add");
+        assertFalse(tree.add("some"), "add equivalent");
+        Collections.addAll(tree, testStrings);
+        assertEquals(testStrings.length, tree.size(), "size");
+        assertEquals(2, tree.shardCount(), "lengths 4 and 6");
+        assertTrue(tree.contains("salmon"));
+        assertFalse(tree.contains("sort"));
+        assertFalse(tree.contains(null), "null not in tree");
+        assertFalse(tree.contains(new Object()), "non CharSequence not in tree");
+        assertThrows(NullPointerException.class, () -> tree.add(null));
+
+        assertTrue(tree.remove("salmon"));
+        assertFalse(tree.remove("salmon"), "already removed");
+        assertFalse(tree.remove(new Object()), "non CharSequence not removed");
+        assertEquals(1, tree.shardCount(), "empty shard dropped");
+        assertEquals(new HashSet<>(Arrays.asList("some", "soft", "same", "mole", "soda")), new HashSet<>(tree));
+    }
+
+    @Test
+    void search() {
+        ShardedBKTree<CharSequence> tree = ShardedBKTree.byLength(distFunc);
+        Collections.addAll(tree, testStrings);
+        List<BKTree.SearchResult<CharSequence>> results = tree.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+        assertEquals(1, tree.search("salmo", 1).size(), "longer shard searched");
+        assertEquals(0, tree.search("salmo", 0).size(), "no shard of length 5");
+        assertTrue(tree.search(null, 2).isEmpty(), "no search when t is null");
+        assertTrue(tree.search("sort", -1).isEmpty(), "no search with a negative radius");
+    }
+
+    @Test
+    void matchesBKTree() {
+        Random random = new Random(73);
+        BKTree<CharSequence> expected = new BKTree<>(distFunc);
+        ShardedBKTree<CharSequence> tree = ShardedBKTree.byLength(distFunc);
+        ShardedBKTree<CharSequence> bucketed = new ShardedBKTree<>(distFunc, ShardFunctions.byLength(3));
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[1 + random.nextInt(9)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(4));
+            String word = new String(chars);
+            expected.add(word);
+            tree.add(word);
+            bucketed.add(word);
+        }
+        assertEquals(expected.size(), tree.size(), "size");
+
+        for (int q = 0; q < 60; q++) {
+            String query = "abcdabcdab".substring(0, 1 + q % 10);
+            int radius = q % 4;
+            List<BKTree.SearchResult<CharSequence>> expectedResults = expected.search(query, radius);
+            for (List<BKTree.SearchResult<CharSequence>> results : Arrays.asList(tree.search(query, radius),
+                    bucketed.search(query, radius), tree.parallelSearch(query, radius))) {
+                assertEquals(expectedResults.size(), results.size(), "results for " + query + " within " + radius);
+                for (int i = 0; i < results.size(); i++)
+                    assertEquals(expectedResults.get(i).getDistance(), results.get(i).getDistance(), "sorted by distance");
+            }
+        }
+    }
+
+    @Test
+    void iteratorRemove() {
+        ShardedBKTree<CharSequence> tree = ShardedBKTree.byLength(distFunc);
+        Collections.addAll(tree, testStrings);
+        Iterator<CharSequence> iterator = tree.iterator();
+        assertThrows(IllegalStateException.class, iterator::remove, "nothing visited");
+        while (iterator.hasNext()) {
+            if (iterator.next().length() == 4)
+                iterator.remove();
+        }
+        assertEquals(Collections.singleton("salmon"), new HashSet<>(tree), "only length 6 left");
+
+        Iterator<CharSequence> modified = tree.iterator();
+        tree.add("sort");
+        assertThrows(ConcurrentModificationException.class, modified::next, "fail fast");
+    }
+}
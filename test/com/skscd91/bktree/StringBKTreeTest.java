@@ -0,0 +1,89 @@
+package com.skscd91.bktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringBKTreeTest {
+
+    private static final String[] testStrings = new String[]{"some", "soft", "same", "mole", "soda", "salmon"};
+    private static final DistanceFunction<CharSequence> distFunc = DistanceFunctions.levenshteinDistance();
+
+    @Test
+    void add() {
+        StringBKTree tree = new StringBKTree(distFunc);
+        assertTrue(tree.add("some"), "first add");
+        assertFalse(tree.add("some"), "add equivalent");
+        assertFalse(tree.add(new StringBuffer("some")), "other CharSequence with same content is the same item");
+        assertTrue(tree.add("somb"), "add new object");
+        assertTrue(tree.add(""), "add empty string");
+        assertEquals(3, tree.size());
+        assertThrows(NullPointerException.class, () -> tree.add(null));
+        assertThrows(UnsupportedOperationException.class, () -> tree.remove("some"));
+    }
+
+    @Test
+    void search() {
+        StringBKTree tree = new StringBKTree(distFunc);
+        Collections.addAll(tree, testStrings);
+        List<BKTree.SearchResult<CharSequence>> results = tree.search("sort", 2);
+        assertEquals(3, results.size(), "result size");
+        assertEquals("soft", results.get(0).getItem(), "sorted by distance");
+        assertEquals(String.class, results.get(0).getItem().getClass(), "results are copied out as Strings");
+        assertTrue(tree.search(null, 2).isEmpty(), "no search when t is null");
+    }
+
+    @Test
+    void matchesBKTree() {
+        Random random = new Random(12);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            char[] chars = new char[1 + random.nextInt(10)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('a' + random.nextInt(6));
+            words.add(new String(chars));
+        }
+        for (boolean offHeap : new boolean[]{false, true}) {
+            StringBKTree tree = new StringBKTree(DistanceFunctions.myersLevenshteinDistance(), offHeap);
+            BKTree<CharSequence> expected = new BKTree<>(distFunc);
+            for (String word : words)
+                assertEquals(expected.add(word), tree.add(word), "add " + word);
+            assertEquals(expected.size(), tree.size(), "size");
+            assertEquals(new HashSet<CharSequence>(expected), new HashSet<>(tree), "iterator sees every item");
+
+            for (int i = 0; i < 100; i++) {
+                String query = words.get(i);
+                for (int radius = 0; radius <= 3; radius++)
+                    assertEquals(expected.search(query, radius).size(), tree.search(query, radius).size(),
+                            "results for " + query + " within " + radius);
+                assertTrue(tree.contains(new StringBuilder(query)), query + " is in tree");
+            }
+        }
+    }
+
+    @Test
+    void contains() {
+        StringBKTree tree = new StringBKTree(distFunc, true);
+        assertFalse(tree.contains("some"), "false if empty");
+        Collections.addAll(tree, testStrings);
+        for (String s : testStrings)
+            assertTrue(tree.contains(s), s + " is in tree");
+        assertFalse(tree.contains("sort"), "sort not in tree");
+        assertFalse(tree.contains(new Object()), "non CharSequence not in tree");
+        assertFalse(tree.contains(null), "null not in tree");
+    }
+
+    @Test
+    void iterator() {
+        StringBKTree tree = new StringBKTree(distFunc);
+        Collections.addAll(tree, testStrings);
+        assertEquals(Arrays.<CharSequence>asList(testStrings), new ArrayList<>(tree), "insertion order");
+
+        Iterator<CharSequence> it = tree.iterator();
+        it.next();
+        tree.add("sort");
+        assertThrows(ConcurrentModificationException.class, it::next);
+    }
+}